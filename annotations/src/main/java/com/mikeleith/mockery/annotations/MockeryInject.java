@@ -48,9 +48,10 @@ public final class MockeryInject {
         final List<Field> fields = getInheritedFields(o.getClass());
         final List<Field> toInject = new ArrayList<>();
         final Map<Class<?>, List<Field>> typeMapping = new HashMap<>();
+        final Map<Field, Object> mocks = mockAll(fields);
         for (final Field field: fields) {
             if (field.isAnnotationPresent(Mock.class)) {
-                init(o, field, Mockery::mock);
+                init(o, field, i -> mocks.get(field));
             } else if (field.isAnnotationPresent(Spy.class)) {
                 init(o, field, i -> {
                     try {
@@ -98,6 +99,26 @@ public final class MockeryInject {
         }
     }
 
+    /**
+     * Creates every @Mock at once, so their classes are generated together
+     * @param fields fields to create mocks for
+     * @return a mock for each @Mock field (except primitives, which can't be mocked)
+     */
+    private static Map<Field, Object> mockAll(final List<Field> fields) {
+        final List<Field> annotated = new ArrayList<>();
+        for (final Field field: fields) {
+            if (field.isAnnotationPresent(Mock.class) && !field.getType().isPrimitive()) {
+                annotated.add(field);
+            }
+        }
+        final Object[] mocks = Mockery.mockAll(annotated.stream().map(Field::getType).toArray(Class<?>[]::new));
+        final Map<Field, Object> mapping = new HashMap<>();
+        for (int i = 0; i < mocks.length; i++) {
+            mapping.put(annotated.get(i), mocks[i]);
+        }
+        return mapping;
+    }
+
     private static List<Field> getInheritedFields(final Class<?> type) {
         final List<Field> fields = new ArrayList<>();
         for (Class<?> c = type; c != null; c = c.getSuperclass()) {
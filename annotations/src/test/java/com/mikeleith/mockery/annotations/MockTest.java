@@ -20,6 +20,7 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static com.mikeleith.mockery.Mockery.when;
 
@@ -49,10 +50,33 @@ public class MockTest {
         assertNotNull(target.example);
     }
 
+    @Test
+    void testMockMultiple() {
+        final MultipleMocks target = new MultipleMocks();
+        MockeryInject.inject(target);
+        assertNotNull(target.example);
+        assertNotNull(target.example2);
+        assertNotNull(target.other);
+        // each field gets its own mock
+        assertNotSame(target.example, target.example2);
+        when(target.example.doSomething()).thenReturn(1);
+        assertEquals(0, target.example2.doSomething());
+    }
+
     public interface Example {
         int doSomething();
     }
 
+    public interface Other {
+        String doSomethingElse();
+    }
+
+    public class MultipleMocks {
+        @Mock Example example;
+        @Mock Example example2;
+        @Mock Other other;
+    }
+
     public class PrivateMock {
         @Mock private Example example;
     }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery;
+
+import org.mockito.Mockito;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/*
+Benchmark                                      (methods)  Mode  Cnt    Score   Error  Units
+GenerationBenchmark.benchmarkFirstMockMockery        100    ss   30    4.583 ± 2.048  ms/op
+GenerationBenchmark.benchmarkFirstMockMockery        500    ss   30   11.873 ± 4.044  ms/op
+GenerationBenchmark.benchmarkFirstMockMockito        100    ss   30   48.327 ± 4.869  ms/op
+GenerationBenchmark.benchmarkFirstMockMockito        500    ss   30  120.109 ± 7.702  ms/op
+ */
+/**
+ * Time to generate the first mock of a large interface. Every invocation mocks a freshly loaded interface,
+ * so nothing is cached.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(2)
+public class GenerationBenchmark {
+    // a mix of boxed, raw primitive and void stubs
+    private static final String[] DESCRIPTORS = new String[]{
+            "()Ljava/lang/String;",
+            "(Ljava/lang/String;I)Ljava/lang/Object;",
+            "(J)J",
+            "(ID)D",
+            "(Z)V",
+            "([JLjava/util/List;F)I",
+    };
+
+    @State(Scope.Thread)
+    public static class Interface {
+        @Param({"100", "500"})
+        int methods;
+
+        byte[] bytes;
+        Class<?> clazz;
+
+        @Setup(Level.Trial)
+        public void generate() {
+            final ClassWriter wr = new ClassWriter(0);
+            wr.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE,
+                    "generated/Large", null, "java/lang/Object", null);
+            for (int i = 0; i < methods; i++) {
+                wr.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "method" + i,
+                        DESCRIPTORS[i % DESCRIPTORS.length], null, null).visitEnd();
+            }
+            wr.visitEnd();
+            bytes = wr.toByteArray();
+        }
+
+        @Setup(Level.Invocation)
+        public void load() throws ClassNotFoundException {
+            clazz = new ClassLoader(GenerationBenchmark.class.getClassLoader()) {
+                @Override
+                protected Class<?> findClass(final String name) throws ClassNotFoundException {
+                    if (!"generated.Large".equals(name)) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    return defineClass(name, bytes, 0, bytes.length);
+                }
+
+                @Override
+                public InputStream getResourceAsStream(final String name) {
+                    return "generated/Large.class".equals(name)
+                            ? new ByteArrayInputStream(bytes)
+                            : super.getResourceAsStream(name);
+                }
+            }.loadClass("generated.Large");
+        }
+    }
+
+    @Benchmark
+    public Object benchmarkFirstMockMockery(final Interface iface) {
+        return Mockery.mock(iface.clazz);
+    }
+
+    @Benchmark
+    public Object benchmarkFirstMockMockito(final Interface iface) {
+        return Mockito.mock(iface.clazz);
+    }
+}
@@ -18,6 +18,8 @@ package com.mikeleith.mockery;import org.mockito.Mockito;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
 import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
@@ -25,9 +27,13 @@ import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
 import org.openjdk.jmh.annotations.Warmup;
 import org.openjdk.jmh.infra.Blackhole;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
 /*
  Benchmark                                                      Mode  Cnt         Score        Error  Units
 MockBenchmark.benchmarkCallMockedMethodMockery                thrpt   20   5331026.301 ±  95661.425  ops/s
@@ -61,6 +67,9 @@ MockBenchmark.benchmarkVerifyMockito                          thrpt   20      11
 @Measurement(iterations = 10, time = 10)
 @Fork(2)
 public class MockBenchmark {
+    private static final int TABLE_SIZE = 1000;
+    private static final int SEQUENCE_SIZE = 1_000_000;
+
     @State(Scope.Benchmark)
     public static class Mocks {
         Target mockeryTarget;
@@ -69,6 +78,13 @@ public class MockBenchmark {
         Target mockitoDisabledTarget;
         Target mockerySpy;
         Target mockitoSpy;
+        Target mockeryStubOnlyTarget;
+        Target mockitoStubOnlyTarget;
+        Target mockeryTableTarget;
+        Target mockitoTableTarget;
+        Target mockerySwappedTarget;
+        Target mockerySequenceTarget;
+        Target mockitoSequenceTarget;
 
         @Setup(Level.Trial)
         public void setUp() {
@@ -80,6 +96,33 @@ public class MockBenchmark {
 
             mockerySpy = Mockery.spy(new Impl());
             mockitoSpy = Mockito.spy(new Impl());
+
+            // never reset, so the stubs survive between iterations
+            mockeryStubOnlyTarget = Mockery.mock(Target.class, false);
+            Mockery.when(mockeryStubOnlyTarget.doSomethingPrimitive(Matchers.anyLong())).thenReturn(100L);
+            mockitoStubOnlyTarget = Mockito.mock(Target.class, Mockito.withSettings().stubOnly());
+            Mockito.when(mockitoStubOnlyTarget.doSomethingPrimitive(Mockito.anyLong())).thenReturn(100L);
+
+            // a table driven fake, with a stub per argument
+            mockeryTableTarget = Mockery.mock(Target.class, false);
+            mockitoTableTarget = Mockito.mock(Target.class, Mockito.withSettings().stubOnly());
+            for (long i = 0; i < TABLE_SIZE; i++) {
+                Mockery.when(mockeryTableTarget.doSomethingPrimitive(i)).thenReturn(i);
+                Mockito.when(mockitoTableTarget.doSomethingPrimitive(i)).thenReturn(i);
+            }
+
+            mockerySwappedTarget = Mockery.mock(Target.class, false);
+            Mockery.when(mockerySwappedTarget.doSomethingPrimitive(Matchers.anyLong())).thenReturn(100L);
+
+            // a long sequence of canned values, cycled so it doesn't run out during an iteration
+            final Long[] sequence = LongStream.range(0, SEQUENCE_SIZE).boxed().toArray(Long[]::new);
+            mockerySequenceTarget = Mockery.mock(Target.class, false);
+            Mockery.when(mockerySequenceTarget.doSomethingPrimitive(Matchers.anyLong())).thenReturnCycling(sequence);
+            // Mockito has no cycling answer, so this is the closest equivalent
+            final AtomicInteger next = new AtomicInteger(0);
+            mockitoSequenceTarget = Mockito.mock(Target.class, Mockito.withSettings().stubOnly());
+            Mockito.when(mockitoSequenceTarget.doSomethingPrimitive(Mockito.anyLong()))
+                    .thenAnswer(a -> sequence[Math.floorMod(next.getAndIncrement(), SEQUENCE_SIZE)]);
         }
 
         @TearDown(Level.Iteration)
@@ -92,6 +135,21 @@ public class MockBenchmark {
         }
     }
 
+    // a mock per thread, to check calls to unrelated mocks don't contend
+    @State(Scope.Thread)
+    public static class ThreadMocks {
+        Target mockeryTarget;
+        Target mockitoTarget;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            mockeryTarget = Mockery.mock(Target.class, false);
+            Mockery.when(mockeryTarget.doSomethingPrimitive(Matchers.anyLong())).thenReturn(100L);
+            mockitoTarget = Mockito.mock(Target.class, Mockito.withSettings().stubOnly());
+            Mockito.when(mockitoTarget.doSomethingPrimitive(Mockito.anyLong())).thenReturn(100L);
+        }
+    }
+
     @Benchmark
     @BenchmarkMode(Mode.Throughput)
     public void benchmarkSpyCreationMockery(final Blackhole blackhole) {
@@ -296,10 +354,144 @@ public class MockBenchmark {
         blackhole.consume(Mockito.mock(Target.class));
     }
 
+    /*
+     * The primitive benchmarks are intended to be run with the gc profiler, e.g "-prof gc".
+     * Stub-only primitive calls through Mockery should show a gc.alloc.rate.norm of ~0 B/op
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void benchmarkCallPrimitiveStubOnlyMockery(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockeryStubOnlyTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void benchmarkCallPrimitiveStubOnlyMockito(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockitoStubOnlyTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void benchmarkCallPrimitiveWithoutHistoryMockery(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockeryDisabledTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void benchmarkCallPrimitiveWithoutHistoryMockito(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockitoDisabledTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void benchmarkCallTableStubMockery(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockeryTableTarget.doSomethingPrimitive(TABLE_SIZE / 2));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void benchmarkCallTableStubMockito(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockitoTableTarget.doSomethingPrimitive(TABLE_SIZE / 2));
+    }
+
+    /*
+     * Calls to one mock shared by several threads, compare with the single threaded versions above to see how they
+     * scale with the number of threads
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public void benchmarkCallMockedMethodThreadsMockery(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockeryTarget.doSomething());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public void benchmarkCallMockedMethodThreadsMockito(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockitoTarget.doSomething());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public void benchmarkCallPrimitiveStubOnlyThreadsMockery(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockeryStubOnlyTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public void benchmarkCallPrimitiveStubOnlyThreadsMockito(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockitoStubOnlyTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public void benchmarkCallThreadMockThreadsMockery(final ThreadMocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockeryTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public void benchmarkCallThreadMockThreadsMockito(final ThreadMocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockitoTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void benchmarkCallSequenceMockery(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockerySequenceTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void benchmarkCallSequenceMockito(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockitoSequenceTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public void benchmarkCallSequenceThreadsMockery(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockerySequenceTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Threads(4)
+    public void benchmarkCallSequenceThreadsMockito(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockitoSequenceTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    /*
+     * Calls to a mock while another thread keeps re-stubbing it. There's no Mockito equivalent, as it doesn't support
+     * stubbing a mock while it's being called
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Group("swapStubsMockery")
+    @GroupThreads(3)
+    public void benchmarkCallSwappedStubMockery(final Mocks mocks, final Blackhole blackhole) {
+        blackhole.consume(mocks.mockerySwappedTarget.doSomethingPrimitive(1_000_000L));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Group("swapStubsMockery")
+    @GroupThreads(1)
+    public void benchmarkSwapStubMockery(final Mocks mocks) {
+        // replaces the previous stub for the same value, rather than adding another
+        Mockery.when(mocks.mockerySwappedTarget.doSomethingPrimitive(1_000_000L)).thenReturn(100L);
+    }
+
     public interface Target {
         String doSomething();
         String doSomething(final String arg1);
         int doSomethingElse();
+        long doSomethingPrimitive(final long arg1);
     }
 
     public static class Impl implements Target {
@@ -317,5 +509,10 @@ public class MockBenchmark {
         public int doSomethingElse() {
             return 0;
         }
+
+        @Override
+        public long doSomethingPrimitive(final long arg1) {
+            return arg1;
+        }
     }
 }
@@ -16,6 +16,12 @@
 
 package com.mikeleith.mockery;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
 /**
  * Interface to support specifying custom returned defaults (per-class) for a mock.
  *
@@ -30,6 +36,15 @@ public interface Defaults {
      */
     final class Impl implements Defaults {
         public static final Impl IMPL = new Impl();
+        // boxed once, so returning a default never allocates (Float/Double.valueOf aren't cached)
+        private static final Object BOOLEAN = false;
+        private static final Object BYTE = (byte) 0;
+        private static final Object CHAR = (char) 0;
+        private static final Object SHORT = (short) 0;
+        private static final Object INT = 0;
+        private static final Object LONG = 0L;
+        private static final Object FLOAT = 0.0f;
+        private static final Object DOUBLE = 0.0;
 
         private Impl() {}
 
@@ -38,26 +53,108 @@ public interface Defaults {
         public <T> Object get(final Class<T> clazz) {
             if (clazz.isPrimitive()) {
                 if (clazz == Integer.TYPE) {
-                    return 0;
+                    return INT;
                 } else if (clazz == Void.TYPE) {
                     return null;
                 } else if (clazz == Boolean.TYPE) {
-                    return false;
+                    return BOOLEAN;
                 } else if (clazz == Byte.TYPE) {
-                    return (byte) 0;
+                    return BYTE;
                 } else if (clazz == Character.TYPE) {
-                    return (char) 0;
+                    return CHAR;
                 } else if (clazz == Short.TYPE) {
-                    return (short) 0;
+                    return SHORT;
                 } else if (clazz == Double.TYPE) {
-                    return 0.0;
+                    return DOUBLE;
                 } else if (clazz == Float.TYPE) {
-                    return 0.0f;
+                    return FLOAT;
                 } else if (clazz == Long.TYPE) {
-                    return 0L;
+                    return LONG;
                 }
             }
             return null;
         }
     }
+
+    /**
+     * Deep stubs, e.g mock(Foo.class, Deep.DEEP).getBar().getBaz() returns a mock instead of throwing an NPE.
+     * Methods returning a type we can mock return a (deep) mock of it, created on the first call and reused after.
+     * Children track history only if their parent does, e.g mock(Foo.class, false, Deep.DEEP).
+     * Everything else (primitives, arrays, final classes...) returns the same as Impl.
+     *
+     * The first time a type is mocked with deep stubs, the types its methods return are preloaded in the background
+     * (see Mockery.preload), since they're likely to be mocked next.
+     */
+    final class Deep implements Defaults {
+        public static final Deep DEEP = new Deep(true);
+        // used in place of DEEP by mocks that don't track history, see withHistory
+        private static final Deep WITHOUT_HISTORY = new Deep(false);
+        // why we can't create a mock of each type, e.g we can't for most JDK types on java 9+. Empty if we can
+        private static final ClassValue<Optional<Exception>> FAILURE = new ClassValue<Optional<Exception>>() {
+            @Override
+            protected Optional<Exception> computeValue(final Class<?> type) {
+                if (!canMock(type)) {
+                    return Optional.of(new IllegalArgumentException(type + " can't be mocked"));
+                }
+                return Optional.ofNullable(Mockery.generationFailure(type));
+            }
+        };
+        // set once a type's return types have been preloaded
+        private static final ClassValue<Boolean> PRELOADED = new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue(final Class<?> type) {
+                final List<Class<?>> children = new ArrayList<>();
+                for (final Method method : type.getMethods()) {
+                    final Class<?> child = method.getReturnType();
+                    if (child != type && canMock(child) && !children.contains(child)) {
+                        children.add(child);
+                    }
+                }
+                Mockery.preload(children);
+                return true;
+            }
+        };
+
+        private final boolean trackHistory;
+
+        private Deep(final boolean trackHistory) {
+            this.trackHistory = trackHistory;
+        }
+
+        @Override
+        public <T> Object get(final Class<T> clazz) {
+            if (!FAILURE.get(clazz).isPresent()) {
+                return Mockery.mock(clazz, trackHistory, this);
+            }
+            return Impl.IMPL.get(clazz);
+        }
+
+        /**
+         * @param clazz type returned by a deep stubbed method
+         * @return why it returns the same as Impl rather than a mock, or null if it returns a mock
+         */
+        static Exception failure(final Class<?> clazz) {
+            return FAILURE.get(clazz).orElse(null);
+        }
+
+        /**
+         * @param trackHistory whether the mock using these defaults tracks history
+         * @return deep stubs whose children track history the same way
+         */
+        Deep withHistory(final boolean trackHistory) {
+            return trackHistory ? DEEP : WITHOUT_HISTORY;
+        }
+
+        /**
+         * Starts generating the mocks of every type clazz's methods return, if we haven't already
+         * @param clazz type being mocked with deep stubs
+         */
+        static void preloadChildren(final Class<?> clazz) {
+            PRELOADED.get(clazz);
+        }
+
+        private static boolean canMock(final Class<?> type) {
+            return !type.isPrimitive() && !type.isArray() && Mockery.isMockable(type);
+        }
+    }
 }
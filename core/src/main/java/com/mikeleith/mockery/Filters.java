@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The filters built by MethodFilter's factories. These are compared by value, so equal filters share one generated
+ * class however many times they're created (see Mockery.describe)
+ */
+final class Filters {
+    private Filters() {}
+
+    static final class Named implements MethodFilter {
+        private final Set<String> names;
+
+        Named(final Set<String> names) {
+            this.names = names;
+        }
+
+        @Override
+        public boolean test(final Method method) {
+            return names.contains(method.getName());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Named && names.equals(((Named) o).names);
+        }
+
+        @Override
+        public int hashCode() {
+            return names.hashCode();
+        }
+    }
+
+    static final class AnnotatedWith implements MethodFilter {
+        private final Class<? extends Annotation> annotation;
+
+        AnnotatedWith(final Class<? extends Annotation> annotation) {
+            this.annotation = Objects.requireNonNull(annotation);
+        }
+
+        @Override
+        public boolean test(final Method method) {
+            return method.isAnnotationPresent(annotation);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof AnnotatedWith && annotation == ((AnnotatedWith) o).annotation;
+        }
+
+        @Override
+        public int hashCode() {
+            return annotation.hashCode();
+        }
+    }
+
+    static final class DeclaredBy implements MethodFilter {
+        private final Set<Class<?>> types;
+
+        DeclaredBy(final Set<Class<?>> types) {
+            this.types = types;
+        }
+
+        @Override
+        public boolean test(final Method method) {
+            return types.contains(method.getDeclaringClass());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof DeclaredBy && types.equals(((DeclaredBy) o).types);
+        }
+
+        @Override
+        public int hashCode() {
+            return types.hashCode();
+        }
+    }
+
+    static final class And implements MethodFilter {
+        private final MethodFilter left;
+        private final MethodFilter right;
+
+        And(final MethodFilter left, final MethodFilter right) {
+            this.left = left;
+            this.right = Objects.requireNonNull(right);
+        }
+
+        @Override
+        public boolean test(final Method method) {
+            return left.test(method) && right.test(method);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof And && left.equals(((And) o).left) && right.equals(((And) o).right);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * left.hashCode() + right.hashCode();
+        }
+    }
+
+    static final class Or implements MethodFilter {
+        private final MethodFilter left;
+        private final MethodFilter right;
+
+        Or(final MethodFilter left, final MethodFilter right) {
+            this.left = left;
+            this.right = Objects.requireNonNull(right);
+        }
+
+        @Override
+        public boolean test(final Method method) {
+            return left.test(method) || right.test(method);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Or && left.equals(((Or) o).left) && right.equals(((Or) o).right);
+        }
+
+        @Override
+        public int hashCode() {
+            return 37 * left.hashCode() + right.hashCode();
+        }
+    }
+
+    static final class Not implements MethodFilter {
+        private final MethodFilter filter;
+
+        Not(final MethodFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean test(final Method method) {
+            return !filter.test(method);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Not && filter.equals(((Not) o).filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return ~filter.hashCode();
+        }
+    }
+}
@@ -16,6 +16,10 @@
 
 package com.mikeleith.mockery;
 
+import com.mikeleith.mockery.internal.Primitives;
+import com.mikeleith.mockery.internal.Visitor;
+import org.objectweb.asm.Type;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -29,7 +33,9 @@ import java.util.function.Predicate;
  * E.g when(foo.callMethod(eq(1), any()).thenReturn(100);
  */
 public class Matchers {
-    private static final List<Predicate<Object>> REGISTER = new ArrayList<>(4);
+    // matchers used since the last stub/verification, kept per thread so tests running in parallel don't share them
+    private static final ThreadLocal<List<Predicate<Object>>> REGISTER =
+            ThreadLocal.withInitial(() -> new ArrayList<>(4));
 
     private Matchers() {}
 
@@ -214,7 +220,7 @@ public class Matchers {
      * @return Default return value for T
      */
     public static <T> T eq(final T t) {
-        matches(t == null ? Objects::isNull : t::equals);
+        add(equalTo(t), Object.class);
         return t;
     }
 
@@ -254,7 +260,8 @@ public class Matchers {
      * @return Default return value for bools
      */
     public static boolean matchesBool(final BooleanPredicate condition) {
-        return (boolean) add(i -> typeCheck(i, Boolean.class) && condition.test((boolean) i), boolean.class);
+        return (boolean) add(new Primitive(Type.BOOLEAN, Boolean.class,
+                bits -> condition.test(bits != 0)), boolean.class);
     }
 
     /**
@@ -263,7 +270,7 @@ public class Matchers {
      * @return Default return value for bytes
      */
     public static byte matchesByte(final BytePredicate condition) {
-        return (byte) add(i -> typeCheck(i, Byte.class) && condition.test((byte) i), byte.class);
+        return (byte) add(new Primitive(Type.BYTE, Byte.class, bits -> condition.test((byte) bits)), byte.class);
     }
 
     /**
@@ -272,7 +279,7 @@ public class Matchers {
      * @return Default return value for chars
      */
     public static char matchesChar(final CharPredicate condition) {
-        return (char) add(i -> typeCheck(i, Character.class) && condition.test((char) i), char.class);
+        return (char) add(new Primitive(Type.CHAR, Character.class, bits -> condition.test((char) bits)), char.class);
     }
 
     /**
@@ -281,7 +288,7 @@ public class Matchers {
      * @return Default return value for shorts
      */
     public static short matchesShort(final ShortPredicate condition) {
-        return (short) add(i -> typeCheck(i, Short.class) && condition.test((short) i), short.class);
+        return (short) add(new Primitive(Type.SHORT, Short.class, bits -> condition.test((short) bits)), short.class);
     }
 
     /**
@@ -290,7 +297,7 @@ public class Matchers {
      * @return Default return value for ints
      */
     public static int matchesInt(final IntPredicate condition) {
-        return (int) add(i -> typeCheck(i, Integer.class) && condition.test((int) i), int.class);
+        return (int) add(new Primitive(Type.INT, Integer.class, bits -> condition.test((int) bits)), int.class);
     }
 
     /**
@@ -299,7 +306,7 @@ public class Matchers {
      * @return Default return value for longs
      */
     public static long matchesLong(final LongPredicate condition) {
-        return (long) add(i -> typeCheck(i, Long.class) && condition.test((long) i), long.class);
+        return (long) add(new Primitive(Type.LONG, Long.class, condition), long.class);
     }
 
     /**
@@ -308,7 +315,8 @@ public class Matchers {
      * @return Default return value for floats
      */
     public static float matchesFloat(final FloatPredicate condition) {
-        return (float) add(i -> typeCheck(i, Float.class) && condition.test((float) i), float.class);
+        return (float) add(new Primitive(Type.FLOAT, Float.class,
+                bits -> condition.test(Float.intBitsToFloat((int) bits))), float.class);
     }
 
     /**
@@ -317,33 +325,108 @@ public class Matchers {
      * @return Default return value for doubles
      */
     public static double matchesDouble(final DoublePredicate condition) {
-        return (double) add(i -> typeCheck(i, Double.class) && condition.test((double) i), double.class);
+        return (double) add(new Primitive(Type.DOUBLE, Double.class,
+                bits -> condition.test(Double.longBitsToDouble(bits))), double.class);
     }
 
     private static boolean typeCheck(final Object i, final Class<?> clazz) {
         return i != null && clazz.isAssignableFrom(i.getClass());
     }
 
+    /**
+     * INTERNAL: equivalent of eq(t) without registering it, used when no matchers were given.
+     * Boxed primitives are compared against raw arguments without boxing them (see Primitives)
+     * @param t value to match
+     * @return predicate matching t
+     */
+    static Predicate<Object> equalTo(final Object t) {
+        return new Equal(t);
+    }
+
     private static Object add(final Predicate<Object> pred, final Class<?> clazz) {
-        REGISTER.add(pred);
+        REGISTER.get().add(pred);
         return Defaults.Impl.IMPL.get(clazz);
     }
 
     /**
-     * INTERNAL: returns the current matchers and resets the global list
-     * @return list of matcher predicates used since the last global reset
+     * INTERNAL: returns the current thread's matchers and resets its list
+     * @return list of matcher predicates used by this thread since the last reset
      */
     @SuppressWarnings("unchecked")
     public static Predicate<Object>[] getMatchers() {
-        if (!REGISTER.isEmpty()) {
-            final Predicate<Object>[] cpy = new Predicate[REGISTER.size()];
-            REGISTER.toArray(cpy);
-            REGISTER.clear();
+        final List<Predicate<Object>> register = REGISTER.get();
+        if (!register.isEmpty()) {
+            final Predicate<Object>[] cpy = new Predicate[register.size()];
+            register.toArray(cpy);
+            register.clear();
             return cpy;
         }
         return null;
     }
 
+    /**
+     * Matcher for a primitive argument. This can test raw arguments (see Primitives) without boxing them,
+     * and otherwise falls back to checking the boxed type matches.
+     */
+    private static final class Primitive implements Predicate<Object>, Visitor.RawPredicate {
+        private final int sort;
+        private final Class<?> boxed;
+        private final LongPredicate condition;
+
+        Primitive(final int sort, final Class<?> boxed, final LongPredicate condition) {
+            this.sort = sort;
+            this.boxed = boxed;
+            this.condition = condition;
+        }
+
+        @Override
+        public boolean test(final Object o) {
+            return typeCheck(o, boxed) && condition.test(Primitives.bits(o));
+        }
+
+        @Override
+        public boolean test(final int sort, final long bits) {
+            return this.sort == sort && condition.test(bits);
+        }
+    }
+
+    /**
+     * Matcher used when no matchers were given (see equalTo). Stubs using these are looked up by hash, see Stubs
+     */
+    private static final class Equal implements Predicate<Object>, Visitor.RawPredicate, Visitor.ExactPredicate {
+        private final Object value;
+        private final int sort;
+        // canonical bits of value, if it's a boxed primitive
+        private final long bits;
+
+        Equal(final Object value) {
+            this.value = value;
+            this.sort = value == null ? Type.OBJECT : Primitives.sortOf(value);
+            this.bits = sort == Type.OBJECT ? 0 : Primitives.canonical(sort, Primitives.bits(value));
+        }
+
+        @Override
+        public boolean test(final Object o) {
+            if (sort == Type.OBJECT) {
+                return value == null ? o == null : value.equals(o);
+            }
+            return typeCheck(o, value.getClass()) && Primitives.canonical(sort, Primitives.bits(o)) == bits;
+        }
+
+        @Override
+        public boolean test(final int sort, final long bits) {
+            if (this.sort == Type.OBJECT) {
+                return test(Primitives.box(sort, bits));
+            }
+            return this.sort == sort && Primitives.canonical(sort, bits) == this.bits;
+        }
+
+        @Override
+        public Object value() {
+            return value;
+        }
+    }
+
     public interface FloatPredicate {
         boolean test(final float f);
     }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Chooses which methods a mock overrides, e.g mock(Foo.class, MethodFilter.named("get", "set").negate()).
+ * Methods that aren't mocked keep their real implementation (or throw AbstractMethodError if they don't have one),
+ * and can't be stubbed or verified. Filtering out methods you don't need makes mocks of large types faster to
+ * generate.
+ *
+ * The exception is equals, hashCode and toString, which are based on identity when they aren't mocked (like Object's).
+ * They aren't mocked by default (see DEFAULT), so mocks can be used in hash maps/sets quickly, without recording
+ * every call.
+ *
+ * Mock classes are generated (and cached) once per type and filter. Filters built with the methods here (named,
+ * and, negate...) are equal if they're built the same way, so they share a class. Other filters (e.g lambdas) are
+ * compared by identity, so reuse the same instance (e.g a constant) rather than creating a new one per mock.
+ */
+@FunctionalInterface
+public interface MethodFilter {
+    /**
+     * Mocks every method that can be, including equals/hashCode/toString
+     */
+    MethodFilter ALL = method -> true;
+
+    /**
+     * Matches equals, hashCode and toString
+     */
+    MethodFilter OBJECT_METHODS = method -> {
+        final Class<?>[] params = method.getParameterTypes();
+        switch (method.getName()) {
+            case "equals":
+                return params.length == 1 && params[0] == Object.class;
+            case "hashCode":
+            case "toString":
+                return params.length == 0;
+            default:
+                return false;
+        }
+    };
+
+    /**
+     * The default, mocks every method that can be except equals, hashCode and toString
+     */
+    MethodFilter DEFAULT = OBJECT_METHODS.negate();
+
+    /**
+     * @param method method that would be mocked. It may be declared by any class the mocked type extends/implements
+     * @return whether to mock method
+     */
+    boolean test(final Method method);
+
+    /**
+     * @param other filter to combine with this
+     * @return a filter that only mocks methods both this and other mock
+     */
+    default MethodFilter and(final MethodFilter other) {
+        return new Filters.And(this, other);
+    }
+
+    /**
+     * @param other filter to combine with this
+     * @return a filter that mocks methods either this or other mock
+     */
+    default MethodFilter or(final MethodFilter other) {
+        return new Filters.Or(this, other);
+    }
+
+    /**
+     * @return a filter that mocks the methods this doesn't
+     */
+    default MethodFilter negate() {
+        return new Filters.Not(this);
+    }
+
+    /**
+     * @param names method names
+     * @return a filter that only mocks methods with one of the given names
+     */
+    static MethodFilter named(final String... names) {
+        return new Filters.Named(new HashSet<>(Arrays.asList(names)));
+    }
+
+    /**
+     * @param annotation runtime retained annotation
+     * @return a filter that only mocks methods annotated with annotation (where they're declared)
+     */
+    static MethodFilter annotatedWith(final Class<? extends Annotation> annotation) {
+        return new Filters.AnnotatedWith(annotation);
+    }
+
+    /**
+     * @param types classes/interfaces
+     * @return a filter that only mocks methods declared by one of the given types
+     */
+    static MethodFilter declaredBy(final Class<?>... types) {
+        return new Filters.DeclaredBy(new HashSet<>(Arrays.asList(types)));
+    }
+}
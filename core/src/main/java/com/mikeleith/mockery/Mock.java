@@ -19,9 +19,8 @@ package com.mikeleith.mockery;
 import org.objenesis.ObjenesisStd;
 import com.mikeleith.mockery.internal.Visitor;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -34,45 +33,114 @@ import java.util.function.Predicate;
  *
  * e.g when(foo.doSomething(anyInt())).thenReturn(100).thenThrow(RuntimeException.class)
  * will return 100, then all future calls will throw a RuntimeException
+ *
+ * The stub is only registered once the first "thenX" method is called, so a mock that's being called by other threads
+ * while it's stubbed never sees a stub without a return value. This means when() on its own doesn't change anything,
+ * e.g it doesn't replace an earlier stub for the same args.
+ *
+ * Calls step through the chain without locking, by incrementing a counter of calls. Sequences of values
+ * (e.g thenReturn(1, 2, 3) or thenReturnFrom(values)) are kept as arrays, so each call just indexes into them.
  */
 public class Mock<T> implements Visitor.Fn {
-    // list of "thenX" methods that have been registered to this mock
-    private final List<Visitor.Fn> state;
-    private int index = 0;
+    private static final Step[] NONE = new Step[0];
+    // "thenX" methods that have been registered to this mock. copied on write, so calls can read it without locking
+    private volatile Chain chain = new Chain(NONE);
+    // number of calls that have stepped through the chain, stops increasing once we're past its end
+    private final AtomicLong index = new AtomicLong(0);
+    // where to register this once it has a return value, null after it's been registered
+    private Visitor<?> visitor;
+    private final int id;
+    private final Predicate<Object>[] matchers;
 
     /**
      * INTERNAL
      * @param last visitor to associate these mocked return values with
-     * @param key method signature we are mocking
+     * @param id id of the method we are mocking
      * @param args args the method saw
      */
     @SuppressWarnings("unchecked")
-    public Mock(final Visitor<?> last, final String key, final Object... args) {
-        this.state = new ArrayList<>(4);
+    public Mock(final Visitor<?> last, final int id, final Object... args) {
         Predicate<Object>[] matchers = Matchers.getMatchers();
         if (matchers == null) {
             matchers = new Predicate[args.length];
             for (int i = 0; i < args.length; i++) {
-                matchers[i] = (args[i] == null ? Objects::isNull : args[i]::equals);
+                matchers[i] = Matchers.equalTo(args[i]);
             }
         } else if (args.length != matchers.length) {
             throw new RuntimeException("Not all arguments mocked, you must use eq for literals with Matchers");
         }
-        last.registerCallback(this, key, matchers);
+        this.visitor = last;
+        this.id = id;
+        this.matchers = matchers;
     }
 
     @Override
     public Object apply(final Object[] args) throws Throwable {
-        synchronized (state) {
-            return state.isEmpty() ? null : state.get((index < state.size() ? ++index : index) - 1).apply(args);
+        final Chain chain = this.chain;
+        if (chain.steps.length == 0) {
+            return null;
         }
+        final long i = next(chain);
+        final int step = chain.indexOf(i);
+        return chain.steps[step].apply(i - chain.start(step), args);
     }
 
-    private Mock<T> add(final Visitor.Fn fn) {
-        state.add(fn);
+    @Override
+    public Object apply(final int sorts, final long a0, final long a1) throws Throwable {
+        final Chain chain = this.chain;
+        if (chain.steps.length == 0) {
+            return null;
+        }
+        final long i = next(chain);
+        final int step = chain.indexOf(i);
+        return chain.steps[step].apply(i - chain.start(step), sorts, a0, a1);
+    }
+
+    /**
+     * Steps through the chain, repeating its last answer once we reach the end
+     * @param chain chain to step through, must not be empty
+     * @return the index of the answer to use for this call
+     */
+    private long next(final Chain chain) {
+        long i = index.get();
+        if (i < chain.length) {
+            // racing calls may overshoot, which is fine as they're all past the end (see add)
+            i = index.getAndIncrement();
+        }
+        return Math.min(i, chain.length - 1);
+    }
+
+    @Override
+    public Visitor.Fn settled() {
+        final Chain chain = this.chain;
+        if (chain.steps.length == 0) {
+            return new Getter<>(null);
+        }
+        // the last answer repeats forever
+        return index.get() >= chain.length - 1 ? chain.steps[chain.steps.length - 1].settled() : null;
+    }
+
+    private synchronized Mock<T> add(final Step step) {
+        final Chain chain = this.chain;
+        if (chain.length == Long.MAX_VALUE) {
+            throw new RuntimeException("Nothing can follow thenReturnCycling, it never ends");
+        }
+        final Step[] steps = Arrays.copyOf(chain.steps, chain.steps.length + 1);
+        steps[chain.steps.length] = step;
+        // calls past the end of the old chain continue from the new step
+        index.accumulateAndGet(chain.length, Math::min);
+        this.chain = new Chain(steps);
+        if (visitor != null) {
+            visitor.registerCallback(this, id, matchers);
+            visitor = null;
+        }
         return this;
     }
 
+    private Mock<T> add(final Visitor.Fn fn) {
+        return add(new Step(fn, null, false));
+    }
+
     /**
      * The next call to the method will return o
      * @param o value to return
@@ -82,6 +150,69 @@ public class Mock<T> implements Visitor.Fn {
         return add(new Getter<>(o));
     }
 
+    /**
+     * The next calls to the method will return each of the given values in turn
+     * @param first value to return first
+     * @param rest values to return after first
+     * @return this mock for chaining
+     */
+    @SafeVarargs
+    public final Mock<T> thenReturn(final T first, final T... rest) {
+        final Object[] values = new Object[rest.length + 1];
+        values[0] = first;
+        System.arraycopy(rest, 0, values, 1, rest.length);
+        return add(new Step(null, values, false));
+    }
+
+    /**
+     * The next calls to the method will return each of values in turn, this is copied so later changes to it
+     * aren't seen
+     * @param values values to return
+     * @return this mock for chaining
+     */
+    public Mock<T> thenReturnFrom(final T[] values) {
+        return add(new Step(null, Arrays.copyOf(values, values.length, Object[].class), false));
+    }
+
+    /**
+     * Variant of thenReturnFrom for methods returning an int. The values are boxed up front, so calls don't allocate
+     * @param values values to return
+     * @return this mock for chaining
+     */
+    public Mock<T> thenReturnFrom(final int[] values) {
+        return add(new Step(null, Arrays.stream(values).boxed().toArray(), false));
+    }
+
+    /**
+     * Variant of thenReturnFrom for methods returning a long. The values are boxed up front, so calls don't allocate
+     * @param values values to return
+     * @return this mock for chaining
+     */
+    public Mock<T> thenReturnFrom(final long[] values) {
+        return add(new Step(null, Arrays.stream(values).boxed().toArray(), false));
+    }
+
+    /**
+     * Variant of thenReturnFrom for methods returning a double. The values are boxed up front, so calls don't
+     * allocate
+     * @param values values to return
+     * @return this mock for chaining
+     */
+    public Mock<T> thenReturnFrom(final double[] values) {
+        return add(new Step(null, Arrays.stream(values).boxed().toArray(), false));
+    }
+
+    /**
+     * The next calls to the method will return each of values in turn, then start again from the first, forever.
+     * Nothing can be chained after this
+     * @param values values to return
+     * @return this mock for chaining
+     */
+    @SafeVarargs
+    public final Mock<T> thenReturnCycling(final T... values) {
+        return add(new Step(null, Arrays.copyOf(values, values.length, Object[].class), true));
+    }
+
     /**
      * The next call to the method will call fn
      * @param fn method to be called. The parameters recieved will be passed to this as an Object[]
@@ -110,6 +241,90 @@ public class Mock<T> implements Visitor.Fn {
         return add(a -> { throw e; });
     }
 
+    /**
+     * The "thenX" methods registered so far, along with where each starts in the sequence of calls
+     */
+    private static final class Chain {
+        final Step[] steps;
+        // ends[i] is the number of calls answered by steps 0 to i. Long.MAX_VALUE if it never ends (i.e cycles)
+        final long[] ends;
+        final long length;
+
+        Chain(final Step[] steps) {
+            this.steps = steps;
+            this.ends = new long[steps.length];
+            long length = 0;
+            for (int i = 0; i < steps.length; i++) {
+                length = steps[i].cycle ? Long.MAX_VALUE : length + steps[i].length;
+                ends[i] = length;
+            }
+            this.length = length;
+        }
+
+        /**
+         * @param i index of a call, less than length
+         * @return index of the step answering call i
+         */
+        int indexOf(final long i) {
+            if (steps.length == 1) {
+                return 0;
+            }
+            final int found = Arrays.binarySearch(ends, i);
+            // ends are exclusive, so a call equal to one starts the next step
+            return found >= 0 ? found + 1 : -found - 1;
+        }
+
+        /**
+         * @param step index of a step
+         * @return index of the first call answered by step
+         */
+        long start(final int step) {
+            return step == 0 ? 0 : ends[step - 1];
+        }
+    }
+
+    /**
+     * One "thenX" method, either a single fn or a sequence of values
+     */
+    private static final class Step {
+        private final Visitor.Fn fn;
+        private final Object[] values;
+        private final boolean cycle;
+        private final int length;
+
+        Step(final Visitor.Fn fn, final Object[] values, final boolean cycle) {
+            if (values != null && values.length == 0) {
+                throw new RuntimeException("At least one value must be given");
+            }
+            this.fn = fn;
+            this.values = values;
+            this.cycle = cycle;
+            this.length = values == null ? 1 : values.length;
+        }
+
+        Object apply(final long i, final Object[] args) throws Throwable {
+            return values == null ? fn.apply(args) : get(i);
+        }
+
+        Object apply(final long i, final int sorts, final long a0, final long a1) throws Throwable {
+            return values == null ? fn.apply(sorts, a0, a1) : get(i);
+        }
+
+        private Object get(final long i) {
+            return values[(int) (cycle ? i % length : i)];
+        }
+
+        /**
+         * @return the fn answering every call once we're at our last answer, or null if that changes
+         */
+        Visitor.Fn settled() {
+            if (values == null) {
+                return fn.settled();
+            }
+            return cycle && length > 1 ? null : new Getter<>(values[length - 1]);
+        }
+    }
+
     private static final class Getter<T> implements Visitor.Fn {
         private final T t;
 
@@ -121,5 +336,15 @@ public class Mock<T> implements Visitor.Fn {
         public T apply(final Object[] objects) {
             return t;
         }
+
+        @Override
+        public T apply(final int sorts, final long a0, final long a1) {
+            return t;
+        }
+
+        @Override
+        public boolean isConstant() {
+            return true;
+        }
     }
 }
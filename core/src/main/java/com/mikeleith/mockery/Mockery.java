@@ -16,28 +16,54 @@
 
 package com.mikeleith.mockery;
 
+import com.mikeleith.mockery.internal.ClassCache;
+import com.mikeleith.mockery.internal.ClassDefiner;
+import com.mikeleith.mockery.internal.Frozen;
 import com.mikeleith.mockery.internal.MethodSummary;
+import com.mikeleith.mockery.internal.PackageScanner;
+import com.mikeleith.mockery.internal.Primitives;
 import com.mikeleith.mockery.internal.Proxy;
+import com.mikeleith.mockery.internal.ProxyMock;
 import com.mikeleith.mockery.internal.RootClassVisitor;
 import com.mikeleith.mockery.internal.Verifier;
 import com.mikeleith.mockery.internal.Visitor;
-import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objenesis.ObjenesisStd;
+import org.objenesis.instantiator.ObjectInstantiator;
 
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.IntPredicate;
 
@@ -49,10 +75,22 @@ import java.util.function.IntPredicate;
  * * to record the number of times certain methods were called with given arguments
  */
 public class Mockery {
-    private static final Map<Class<?>, Description<?>> TYPE_CACHE = new HashMap<>();
+    // each type is generated once by whichever thread gets there first, others wait on its task.
+    // Values are attached to the mocked class rather than held here, so they don't keep it (or its loader) alive
+    private static volatile ClassValue<Generation<Description<?>>> typeCache = newTypeCache();
+    // the same for types mocked with a MethodFilter, generated once per filter
+    private static volatile ClassValue<ConcurrentMap<MethodFilter, FutureTask<Description<?>>>> filteredCache =
+            newFilteredCache();
     // counter so that we can clear the cache if needed
-    private static int counter = 0;
-    private static final ObjenesisStd OBJENESIS_STD = new ObjenesisStd();
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    // instantiators are cached per Description instead, objenesis' own cache would keep every mock class alive
+    private static final ObjenesisStd OBJENESIS_STD = new ObjenesisStd(false);
+    // opt-in on-disk cache of generated classes, see setCacheDirectory
+    private static volatile ClassCache classCache = System.getProperty("mockery.cache.dir") == null
+            ? null
+            : new ClassCache(Paths.get(System.getProperty("mockery.cache.dir")));
+    // see setTiered
+    private static volatile boolean tiered = Boolean.getBoolean("mockery.tiered");
     private static final String IMPL_NAME = Type.getInternalName(Visitor.class);
     private static final String IMPL_DESC = Type.getDescriptor(Visitor.class);
     private static final String IMPL = "visitor";
@@ -68,8 +106,71 @@ public class Mockery {
             Type.getType(Double.class)
     };
 
+    /**
+     * Drops every generated mock class. They're unloaded once their existing instances are unreachable
+     * (unless they had to be defined in the mocked class's own classloader, see ClassDefiner)
+     */
     public static void clearCache() {
-        TYPE_CACHE.clear();
+        typeCache = newTypeCache();
+        filteredCache = newFilteredCache();
+    }
+
+    private static ClassValue<Generation<Description<?>>> newTypeCache() {
+        return new ClassValue<Generation<Description<?>>>() {
+            @Override
+            protected Generation<Description<?>> computeValue(final Class<?> type) {
+                return new Generation<>(() -> inject(type, MethodFilter.DEFAULT));
+            }
+        };
+    }
+
+    private static ClassValue<ConcurrentMap<MethodFilter, FutureTask<Description<?>>>> newFilteredCache() {
+        return new ClassValue<ConcurrentMap<MethodFilter, FutureTask<Description<?>>>>() {
+            @Override
+            protected ConcurrentMap<MethodFilter, FutureTask<Description<?>>> computeValue(final Class<?> type) {
+                return new ConcurrentHashMap<>();
+            }
+        };
+    }
+
+    /**
+     * Sets the directory used to cache generated mock classes across JVMs. Caching is disabled by default,
+     * it can also be enabled with the system property "mockery.cache.dir".
+     * @param dir directory to store classes in, or null to disable caching
+     */
+    public static void setCacheDirectory(final Path dir) {
+        classCache = dir == null ? null : new ClassCache(dir);
+    }
+
+    /**
+     * Generates the mock class for clazz ahead of time, e.g as part of a build. The class is written under dir,
+     * which should be on the classpath when clazz is mocked so that it can be used instead of generating it again.
+     * It's only used by mocks with the default MethodFilter, spies and filtered mocks are always generated.
+     * Using it still costs a hash of clazz's hierarchy and a rename of the class, see ClassCache.
+     * @param dir root of a classpath directory
+     * @param clazz class to generate a mock for
+     */
+    public static void pregenerate(final Path dir, final Class<?> clazz) {
+        final ClassCache.Entry entry;
+        try {
+            entry = generate(clazz, Type.getInternalName(clazz) + "Mock", MethodFilter.DEFAULT);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        if (!ClassCache.putPregenerated(dir, clazz, entry)) {
+            throw new RuntimeException("failed to write the mock for " + clazz + " to " + dir);
+        }
+    }
+
+    /**
+     * Enables tiered mocking of interfaces. The first mocks of an interface are backed by a java.lang.reflect.Proxy,
+     * so they're created instantly, while its class is generated in the background. Once it's ready, later mocks use
+     * the generated class, which is much faster to call. Disabled by default, it can also be enabled with the
+     * system property "mockery.tiered".
+     * @param enabled whether to enable tiered mocks
+     */
+    public static void setTiered(final boolean enabled) {
+        tiered = enabled;
     }
 
     private Mockery() {}
@@ -78,6 +179,7 @@ public class Mockery {
      * Resets all global state. Global state is used to simplify the api (i.e to mimic Mockito).
      * In an API such as "when(foo.doesSomething(a, b)).thenReturn" there's no other clean way for the when
      * call to get access to the method called (doesSomething) and the parameters (a, b).
+     * This state is kept per thread, so this only resets the calling thread's.
      */
     public static void reset() {
         Visitor.resetLast();
@@ -98,6 +200,11 @@ public class Mockery {
     /**
      * Creates a new mock implementing the given class. Mocks provide a dummy implementation of the class,
      * with every method returning a default value based on their return type. This default is specified by "defaults"
+     *
+     * Without history, calls to methods that haven't been stubbed take a fast path that just returns the default
+     * (for methods with no args, or up to two primitive args, see Visitor.passive). Mocks that track history, like
+     * mock(clazz), never do. On that path a call is only visible to verify from another thread once the calling
+     * thread has called something else.
      * @param clazz class to implement
      * @param trackHistory whether to track history
      * @param <T> type of the class
@@ -129,7 +236,126 @@ public class Mockery {
      * @return an instance implementing clazz
      */
     public static <T> T mock(final Class<T> clazz, final boolean trackHistory, final Defaults defaults) {
-        return build(clazz, null, defaults, trackHistory);
+        return build(clazz, null, defaults, trackHistory, MethodFilter.DEFAULT);
+    }
+
+    /**
+     * Creates a new mock implementing the given class, that only mocks the methods matching filter.
+     * Other methods keep their real implementation (see MethodFilter)
+     * @param clazz class to implement
+     * @param filter chooses which methods to mock
+     * @param <T> type of the class
+     * @return an instance implementing clazz
+     */
+    public static <T> T mock(final Class<T> clazz, final MethodFilter filter) {
+        return mock(clazz, true, Defaults.Impl.IMPL, filter);
+    }
+
+    /**
+     * Creates a new mock implementing the given class, that only mocks the methods matching filter.
+     * Other methods keep their real implementation (see MethodFilter)
+     * @param clazz class to implement
+     * @param trackHistory whether to track history
+     * @param defaults lets you specify the default values (per class) returned when methods are called
+     * @param filter chooses which methods to mock
+     * @param <T> type of the class
+     * @return an instance implementing clazz
+     */
+    public static <T> T mock(final Class<T> clazz,
+                             final boolean trackHistory,
+                             final Defaults defaults,
+                             final MethodFilter filter) {
+        return build(clazz, null, defaults, trackHistory, Objects.requireNonNull(filter));
+    }
+
+    /**
+     * Creates a mock of each of the given classes (see mock(Class)). Classes that haven't been mocked before are
+     * generated together in parallel, rather than one at a time as each mock is created.
+     * @param classes classes to implement
+     * @return an instance implementing each class, in the same order as classes
+     */
+    public static Object[] mockAll(final Class<?>... classes) {
+        generateAll(Arrays.asList(classes));
+        final Object[] mocks = new Object[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            mocks[i] = mock(classes[i]);
+        }
+        return mocks;
+    }
+
+    /**
+     * Starts generating the mock classes for the given types in the background, e.g while the test framework is
+     * starting. Mocking a type that's still being generated waits for it, rather than generating it again.
+     * Failures aren't thrown here, they're thrown when the type is mocked.
+     * @param classes classes to generate mocks for
+     */
+    public static void preload(final Collection<Class<?>> classes) {
+        final ClassValue<Generation<Description<?>>> cache = typeCache;
+        for (final Class<?> clazz : classes) {
+            cache.get(clazz).start();
+        }
+    }
+
+    /**
+     * Preloads every class in a package (and its subpackages) that can be mocked, using the context classloader.
+     * See preload(String, ClassLoader)
+     * @param packageName package to scan, e.g com.foo
+     */
+    public static void preload(final String packageName) {
+        preload(packageName, Thread.currentThread().getContextClassLoader());
+    }
+
+    /**
+     * Preloads every class in a package (and its subpackages) that can be mocked, see preload(Collection).
+     * The package is scanned in the background too. Classes are loaded, but not initialized.
+     * @param packageName package to scan, e.g com.foo
+     * @param loader loader to find the package's classes with
+     */
+    public static void preload(final String packageName, final ClassLoader loader) {
+        ForkJoinPool.commonPool().execute(() -> {
+            final Set<String> names;
+            try {
+                names = PackageScanner.scan(loader, packageName);
+            } catch (IOException e) {
+                // best effort, anything we miss is generated when it's mocked
+                return;
+            }
+            final List<Class<?>> classes = new ArrayList<>(names.size());
+            for (final String name : names) {
+                try {
+                    final Class<?> clazz = Class.forName(name, false, loader);
+                    if (isMockable(clazz)) {
+                        classes.add(clazz);
+                    }
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // e.g missing optional dependencies
+                }
+            }
+            preload(classes);
+        });
+    }
+
+    /**
+     * @param clazz class to check
+     * @return whether clazz looks like something we can mock, i.e it's a named, non-final class or interface
+     */
+    static boolean isMockable(final Class<?> clazz) {
+        return !Modifier.isFinal(clazz.getModifiers()) && !clazz.isAnnotation() && !clazz.isEnum()
+                && !clazz.isAnonymousClass() && !clazz.isLocalClass() && !clazz.isSynthetic();
+    }
+
+    /**
+     * Generates the mock class for clazz if it hasn't been already, without creating a mock of it
+     * @param clazz class to check
+     * @return why clazz can't be mocked, or null if it can
+     */
+    static Exception generationFailure(final Class<?> clazz) {
+        try {
+            describe(clazz, MethodFilter.DEFAULT);
+            return null;
+        } catch (Exception e) {
+            return e;
+        }
     }
 
     /**
@@ -140,11 +366,11 @@ public class Mockery {
      * @return an instance spying on impl
      */
     public static <T> T spy(final T impl) {
-        return build(impl.getClass(), impl, Defaults.Impl.IMPL, true);
+        return build(impl.getClass(), impl, Defaults.Impl.IMPL, true, MethodFilter.ALL);
     }
 
     public static <T> T spy(final T impl, final boolean trackHistory) {
-        return build(impl.getClass(), impl, Defaults.Impl.IMPL, trackHistory);
+        return build(impl.getClass(), impl, Defaults.Impl.IMPL, trackHistory, MethodFilter.ALL);
     }
 
     /**
@@ -208,7 +434,7 @@ public class Mockery {
 
     /**
      * Used to verify the given method was called exactly "numCalls" times. This returns o, and the next method call
-     * will be verified.
+     * on o by this thread will be verified.
      * e.g verify(foo, 1).doSomething(any());
      * @param o object we want to verify the next call of
      * @param numCalls number of times we expect the next method to have been called
@@ -222,7 +448,7 @@ public class Mockery {
 
     /**
      * Used to verify the given method was called N times. This returns o, and the next method call
-     * will be verified.
+     * on o by this thread will be verified.
      * e.g verify(foo, Times.le(1)).doSomething(any());
      *
      * See Times for common predicates that can be used.
@@ -244,20 +470,95 @@ public class Mockery {
         getVisitor(o).reset();
     }
 
+    /**
+     * Creates a frozen copy of the mock/spy o, with the stubs it has right now compiled into its methods.
+     * Each method calls through an invokedynamic call site bound to its stub, so once it's hot the JIT can inline a
+     * stubbed call down to its answer (or just a constant for thenReturn). Useful when a mock is called in a
+     * benchmark or tight loop.
+     *
+     * Frozen copies don't record calls, and can't be verified, reset or stubbed again (they aren't Trackable),
+     * passing a call to one to when() throws.
+     * Stubs registered on o later don't affect them, with the exception of thenReturn chains that haven't reached
+     * their last value yet, which are still shared with o.
+     * @param o mock/spy to freeze
+     * @param <T> generic type of o
+     * @return a new instance of o's mocked type, answering calls the same way o does now
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T freeze(final T o) {
+        final Visitor<?> visitor = getVisitor(o);
+        final Class<?> mocked = o.getClass().getSuperclass() == Object.class
+                || java.lang.reflect.Proxy.isProxyClass(o.getClass())
+                ? o.getClass().getInterfaces()[0]
+                : o.getClass().getSuperclass();
+        try {
+            final String name = Type.getInternalName(mocked) + "Frozen" + COUNTER.getAndIncrement();
+            final Class<?> frozen = ClassDefiner.define(mocked, name.replace('/', '.'),
+                    generateFrozen(mocked, name, visitor));
+            frozen.getField(Frozen.HANDLES).set(null, Frozen.compile(visitor, mocked.getClassLoader()));
+            return (T) OBJENESIS_STD.newInstance(frozen);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to freeze " + mocked, e);
+        }
+    }
+
     /**
      * Creates a class that extends clazz with the requirements for mocking/spying (implements Trackable)
      * @param clazz class to extend
+     * @param filter methods to mock. Only classes mocking everything are cached on disk
      * @param <T> generic type of the class
      * @return A class extending T and implementing Trackable
      * @throws Exception an exception if we fail to extend the class, e.g if it is final
      */
-    @SuppressWarnings("unchecked")
-    private static <T> Description<?> inject(final Class<T> clazz) throws Exception {
-        final RootClassVisitor visitor = new RootClassVisitor();
-        new ClassReader(clazz.getName()).accept(visitor, ClassReader.EXPAND_FRAMES);
+    private static <T> Description<?> inject(final Class<T> clazz, final MethodFilter filter) throws Exception {
+        final String name = Type.getInternalName(clazz) + "Mock" + COUNTER.getAndIncrement();
+        final ClassCache cache = filter == MethodFilter.DEFAULT ? classCache : null;
+        // hashing clazz's hierarchy isn't free, so it's done at most once, and only if we have somewhere to look
+        final String key = cache != null || (filter == MethodFilter.DEFAULT && ClassCache.hasPregenerated(clazz))
+                ? ClassCache.key(clazz)
+                : null;
+        ClassCache.Entry entry = key == null ? null : ClassCache.getPregenerated(clazz, key);
+        if (entry == null && cache != null) {
+            entry = cache.get(key);
+        }
+        if (entry != null) {
+            entry = new ClassCache.Entry(entry.getKeys(), ClassCache.rename(entry.getBytes(), name));
+        } else {
+            entry = generate(clazz, name, filter);
+            if (cache != null) {
+                cache.put(key, entry);
+            }
+        }
+
+        // objenesis can't instantiate hidden classes, so we only use them when calling our constructor is safe
+        // i.e for interfaces, where it only calls Object's
+        final MethodHandle constructor = clazz.isInterface()
+                ? ClassDefiner.defineHidden(clazz, entry.getBytes())
+                : null;
+        if (constructor != null) {
+            return new Description<>(constructor.type().returnType(), entry.getKeys(), constructor);
+        }
+        return new Description<>(ClassDefiner.define(clazz, name.replace('/', '.'), entry.getBytes()),
+                entry.getKeys(), null);
+    }
+
+    /**
+     * Generates the bytecode for a class extending clazz
+     * @param clazz class to extend
+     * @param name internal name of the new class
+     * @param filter methods to mock
+     * @return the new class, and the keys of its methods
+     * @throws Exception an exception if we fail to extend the class, e.g if it is final
+     */
+    private static ClassCache.Entry generate(final Class<?> clazz,
+                                             final String name,
+                                             final MethodFilter filter) throws Exception {
+        final RootClassVisitor visitor = RootClassVisitor.of(clazz);
 
-        final ClassWriter wr = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
-        final String name = visitor.getName() + "Mock" + counter++;
+        // every method we write is straight-line code, other than a single branch in equals and the passive fast path
+        // (see writeIdentityMethod/writePassive) so we can write their frames and max stack/locals ourselves, rather
+        // than have asm analyze them
+        final ClassWriter wr = new ClassWriter(0);
         final String parent = writeClass(wr, clazz, name, visitor);
 
         // implement trackable (i.e create a new field for the visitor and method getVisitor)
@@ -269,13 +570,141 @@ public class Mockery {
         for (final MethodSummary constructor: constructors) {
             writeConstructor(wr, parent, constructor);
         }
+        if (clazz.isInterface()) {
+            // lets us instantiate interface mocks without objenesis, see Factory
+            writeConstructor(wr, parent, new MethodSummary("<init>", "()V", null, null));
+            writeNewMock(wr, name);
+        }
 
-        final Set<MethodSummary> methods = visitor.getMethods();
+        // every method gets a dense id, used by the visitor to index its histories and callbacks
+        final List<MethodSummary> methods = filter(clazz, visitor.getMethods(), filter);
+        final String[] keys = new String[methods.size()];
+        int id = 0;
         for (final MethodSummary method: methods) {
-            writeMethod(wr, name, method);
+            keys[id] = method.getName() + method.getDescriptor();
+            writeMethod(wr, name, method, id++);
+        }
+        if (!clazz.isInterface()) {
+            // interface mocks inherit Object's, but clazz's own would see the mock's uninitialized fields
+            for (final MethodSummary method : visitor.getMethods()) {
+                if (isObjectMethod(method.getName(), method.getDescriptor()) && !methods.contains(method)) {
+                    writeIdentityMethod(wr, method);
+                }
+            }
+        }
+        wr.visitEnd();
+        return new ClassCache.Entry(keys, wr.toByteArray());
+    }
+
+    /**
+     * Generates the bytecode for a frozen copy of a mock (see freeze). Each of the mock's methods is an invokedynamic
+     * call to its handle in the static field Frozen.HANDLES, linked by Frozen.bootstrap. It has no constructors, since
+     * it's only instantiated through objenesis
+     * @param clazz mocked class
+     * @param name internal name of the new class
+     * @param visitor visitor of the mock being frozen
+     * @return the new class
+     */
+    private static byte[] generateFrozen(final Class<?> clazz, final String name, final Visitor<?> visitor) {
+        final ClassWriter wr = new ClassWriter(0);
+        final String parent = clazz.isInterface() ? "java/lang/Object" : Type.getInternalName(clazz);
+        wr.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                name, null, parent, clazz.isInterface() ? new String[]{Type.getInternalName(clazz)} : null);
+        wr.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, Frozen.HANDLES,
+                Type.getDescriptor(MethodHandle[].class), null, null).visitEnd();
+
+        final Handle bootstrap = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(Frozen.class), "bootstrap",
+                Type.getMethodDescriptor(Type.getType(CallSite.class), Type.getType(MethodHandles.Lookup.class),
+                        Type.getType(String.class), Type.getType(MethodType.class), Type.INT_TYPE),
+                false);
+        final Set<String> keys = new HashSet<>();
+        for (int id = 0; id < visitor.size(); id++) {
+            final String key = visitor.getKey(id);
+            keys.add(key);
+            final String methodName = key.substring(0, key.indexOf('('));
+            final String descriptor = key.substring(key.indexOf('('));
+            final MethodVisitor vis = wr.visitMethod(Opcodes.ACC_PUBLIC, methodName, descriptor, null, null);
+            vis.visitCode();
+            // so that when(frozen.foo()) fails, rather than stubbing whatever mock this thread called before
+            vis.visitMethodInsn(Opcodes.INVOKESTATIC, IMPL_NAME, "clearLast", "()V", false);
+            int j = 1;
+            for (final Type arg : Type.getArgumentTypes(descriptor)) {
+                vis.visitVarInsn(arg.getOpcode(Opcodes.ILOAD), j);
+                j += arg.getSize();
+            }
+            vis.visitInvokeDynamicInsn(methodName, descriptor, bootstrap, id);
+            vis.visitInsn(Type.getReturnType(descriptor).getOpcode(Opcodes.IRETURN));
+            // args are on the stack until the call, then only its result
+            final int sizes = Type.getArgumentsAndReturnSizes(descriptor);
+            vis.visitMaxs(Math.max((sizes >> 2) - 1, sizes & 0x03), sizes >> 2);
+            vis.visitEnd();
+        }
+        if (!clazz.isInterface()) {
+            // the same as generate, Object's methods that weren't mocked are based on identity
+            for (final Method method : Object.class.getMethods()) {
+                final String descriptor = Type.getMethodDescriptor(method);
+                if (isObjectMethod(method.getName(), descriptor) && !keys.contains(method.getName() + descriptor)
+                        && !isFinal(clazz, method)) {
+                    writeIdentityMethod(wr, new MethodSummary(method.getName(), descriptor, null, null));
+                }
+            }
         }
         wr.visitEnd();
-        return new Description<>((Class<?>) loadClass(clazz, name.replace('/', '.'), wr.toByteArray()));
+        return wr.toByteArray();
+    }
+
+    /**
+     * @param clazz class
+     * @param method public method of Object
+     * @return whether clazz's declaration of method is final
+     */
+    private static boolean isFinal(final Class<?> clazz, final Method method) {
+        try {
+            return Modifier.isFinal(clazz.getMethod(method.getName(), method.getParameterTypes()).getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param clazz mocked class
+     * @param methods methods of clazz we can mock
+     * @param filter methods to mock
+     * @return the methods matching filter. Each is tested using its most specific declaration in clazz's hierarchy
+     */
+    private static List<MethodSummary> filter(final Class<?> clazz,
+                                              final Set<MethodSummary> methods,
+                                              final MethodFilter filter) {
+        if (filter == MethodFilter.ALL) {
+            return new ArrayList<>(methods);
+        } else if (filter == MethodFilter.DEFAULT) {
+            // the same as testing each method, without looking them up
+            final List<MethodSummary> filtered = new ArrayList<>(methods.size());
+            for (final MethodSummary summary : methods) {
+                if (!isObjectMethod(summary.getName(), summary.getDescriptor())) {
+                    filtered.add(summary);
+                }
+            }
+            return filtered;
+        }
+        final Map<String, Method> declared = new HashMap<>();
+        for (Class<?> c = clazz.isInterface() ? Object.class : clazz; c != null; c = c.getSuperclass()) {
+            for (final Method method : c.getDeclaredMethods()) {
+                declared.putIfAbsent(method.getName() + Type.getMethodDescriptor(method), method);
+            }
+        }
+        // interface methods, which are always public. Class's declarations take priority
+        for (final Method method : clazz.getMethods()) {
+            declared.putIfAbsent(method.getName() + Type.getMethodDescriptor(method), method);
+        }
+        final List<MethodSummary> filtered = new ArrayList<>();
+        for (final MethodSummary summary : methods) {
+            final Method method = declared.get(summary.getName() + summary.getDescriptor());
+            if (method == null || filter.test(method)) {
+                filtered.add(summary);
+            }
+        }
+        return filtered;
     }
 
     /**
@@ -295,7 +724,8 @@ public class Mockery {
         if (clazz.isInterface()) {
             parent = "java/lang/Object";
             signature = "L" + name;
-            interfaces = new String[]{visitor.getName(), Type.getInternalName(Trackable.class)};
+            interfaces = new String[]{visitor.getName(), Type.getInternalName(Trackable.class),
+                    Type.getInternalName(Factory.class)};
         } else {
             parent = visitor.getName();
             signature = visitor.getSignature();
@@ -319,8 +749,8 @@ public class Mockery {
         vis.visitVarInsn(Opcodes.ALOAD, 0); // this
         vis.visitFieldInsn(Opcodes.GETFIELD, clazz, IMPL, IMPL_DESC);
         vis.visitInsn(Opcodes.ARETURN);
-        vis.visitMaxs(1, 1);
-        wr.visitEnd();
+        vis.visitMaxs(1, 2);
+        vis.visitEnd();
     }
 
     /**
@@ -338,8 +768,107 @@ public class Mockery {
         vis.visitVarInsn(Opcodes.ALOAD, 1);
         vis.visitFieldInsn(Opcodes.PUTFIELD, clazz, IMPL, IMPL_DESC);
         vis.visitInsn(Opcodes.RETURN);
-        vis.visitMaxs(1, 1);
-        wr.visitEnd();
+        vis.visitMaxs(2, 2);
+        vis.visitEnd();
+    }
+
+    /**
+     * @param name method name
+     * @param descriptor method descriptor
+     * @return whether it's equals, hashCode or toString (see MethodFilter.OBJECT_METHODS)
+     */
+    private static boolean isObjectMethod(final String name, final String descriptor) {
+        return ("equals".equals(name) && "(Ljava/lang/Object;)Z".equals(descriptor))
+                || ("hashCode".equals(name) && "()I".equals(descriptor))
+                || ("toString".equals(name) && "()Ljava/lang/String;".equals(descriptor));
+    }
+
+    /**
+     * Writes equals, hashCode or toString the same as Object's, i.e based on identity
+     * @param wr writer
+     * @param summary method to write
+     */
+    private static void writeIdentityMethod(final ClassWriter wr, final MethodSummary summary) {
+        final MethodVisitor vis = wr.visitMethod(Opcodes.ACC_PUBLIC, summary.getName(), summary.getDescriptor(),
+                null, null);
+        vis.visitCode();
+        // these aren't recorded, so when(mock.toString()) must fail rather than stub the last call that was
+        vis.visitMethodInsn(Opcodes.INVOKESTATIC, IMPL_NAME, "clearLast", "()V", false);
+        switch (summary.getName()) {
+            case "equals":
+                // return this == arg;
+                final Label notSame = new Label();
+                vis.visitVarInsn(Opcodes.ALOAD, 0);
+                vis.visitVarInsn(Opcodes.ALOAD, 1);
+                vis.visitJumpInsn(Opcodes.IF_ACMPNE, notSame);
+                vis.visitInsn(Opcodes.ICONST_1);
+                vis.visitInsn(Opcodes.IRETURN);
+                vis.visitLabel(notSame);
+                // we write frames ourselves (see generate), the stack and locals are unchanged here
+                vis.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+                vis.visitInsn(Opcodes.ICONST_0);
+                vis.visitInsn(Opcodes.IRETURN);
+                vis.visitMaxs(2, 2);
+                break;
+            case "hashCode":
+                // return System.identityHashCode(this);
+                vis.visitVarInsn(Opcodes.ALOAD, 0);
+                vis.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "identityHashCode",
+                        "(Ljava/lang/Object;)I", false);
+                vis.visitInsn(Opcodes.IRETURN);
+                vis.visitMaxs(1, 1);
+                break;
+            default:
+                // return getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(this));
+                vis.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
+                vis.visitInsn(Opcodes.DUP);
+                vis.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+                vis.visitVarInsn(Opcodes.ALOAD, 0);
+                vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "getClass",
+                        "()Ljava/lang/Class;", false);
+                vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Class", "getName",
+                        "()Ljava/lang/String;", false);
+                vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                        "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+                vis.visitIntInsn(Opcodes.BIPUSH, '@');
+                vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                        "(C)Ljava/lang/StringBuilder;", false);
+                vis.visitVarInsn(Opcodes.ALOAD, 0);
+                vis.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "identityHashCode",
+                        "(Ljava/lang/Object;)I", false);
+                vis.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "toHexString",
+                        "(I)Ljava/lang/String;", false);
+                vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                        "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+                vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString",
+                        "()Ljava/lang/String;", false);
+                vis.visitInsn(Opcodes.ARETURN);
+                // the builder and whatever's being appended to it
+                vis.visitMaxs(2, 1);
+        }
+        vis.visitEnd();
+    }
+
+    /**
+     * Writes Factory::newMock, i.e "return new clazz() with visitor = visitor"
+     * @param wr writer
+     * @param clazz class name
+     */
+    private static void writeNewMock(final ClassWriter wr, final String clazz) {
+        final MethodVisitor vis = wr.visitMethod(Opcodes.ACC_PUBLIC, "newMock",
+                "(" + IMPL_DESC + ")" + Type.getDescriptor(Trackable.class),
+                null,
+                null);
+        vis.visitCode();
+        vis.visitTypeInsn(Opcodes.NEW, clazz);
+        vis.visitInsn(Opcodes.DUP);
+        vis.visitMethodInsn(Opcodes.INVOKESPECIAL, clazz, "<init>", "()V", false);
+        vis.visitInsn(Opcodes.DUP);
+        vis.visitVarInsn(Opcodes.ALOAD, 1);
+        vis.visitFieldInsn(Opcodes.PUTFIELD, clazz, IMPL, IMPL_DESC);
+        vis.visitInsn(Opcodes.ARETURN);
+        vis.visitMaxs(3, 2);
+        vis.visitEnd();
     }
 
     /**
@@ -353,14 +882,17 @@ public class Mockery {
                 summary.getName(), summary.getDescriptor(), summary.getSignature(), summary.getExceptions());
         vis.visitCode();
         vis.visitVarInsn(Opcodes.ALOAD, 0); // this
-        final Type[] args = Type.getArgumentTypes(summary.getDescriptor());
-        for (int i = 0; i < args.length; i++) {
-            vis.visitVarInsn(args[i].getOpcode(Opcodes.ILOAD), i + 1);
+        int j = 1;
+        for (final Type arg : Type.getArgumentTypes(summary.getDescriptor())) {
+            vis.visitVarInsn(arg.getOpcode(Opcodes.ILOAD), j);
+            j += arg.getSize();
         }
         vis.visitMethodInsn(Opcodes.INVOKESPECIAL, parent, "<init>", summary.getDescriptor(), false);
         vis.visitInsn(Opcodes.RETURN);
-        vis.visitMaxs(1, 1);
-        wr.visitEnd();
+        // this + args, all on the stack at once
+        final int size = Type.getArgumentsAndReturnSizes(summary.getDescriptor()) >> 2;
+        vis.visitMaxs(size, size);
+        vis.visitEnd();
     }
 
     /**
@@ -368,63 +900,119 @@ public class Mockery {
      * @param wr writer
      * @param clazz class name
      * @param summary method summary
+     * @param id id of the method, passed to the visitor instead of its name + descriptor
      */
-    private static void writeMethod(final ClassWriter wr, final String clazz, final MethodSummary summary) {
+    private static void writeMethod(final ClassWriter wr,
+                                    final String clazz,
+                                    final MethodSummary summary,
+                                    final int id) {
         final String descriptor = summary.getDescriptor();
-        final String key = summary.getName() + descriptor;
-        final String var = key.replaceAll("[()/\\[]", "_").replace(';', '-');
-        wr.visitField(Opcodes.ACC_PRIVATE & Opcodes.ACC_SYNTHETIC, var, Type.getDescriptor(List.class), null, null).visitEnd();
 
-        // create a shim that loads all arguments into an Object[] and passes them to
-        // T Visitor::run(String name+descriptor, Class<T> returnType, Object[] args);
+        // create a shim that passes the arguments to the visitor, after trying Visitor::passive if they're all
+        // primitives. Up to two primitives are passed as raw bits to Visitor::runJ/runJJ, no args to
+        // Visitor::run(int, Class), and anything else is loaded into an Object[] for
+        // T Visitor::run(int id, Class<T> returnType, Object[] args);
         final MethodVisitor vis = wr.visitMethod(Opcodes.ACC_PUBLIC, summary.getName(),
                 descriptor, summary.getSignature(), summary.getExceptions());
         vis.visitCode();
+        final Type ret = Type.getReturnType(descriptor);
+        final Type[] args = Type.getArgumentTypes(descriptor);
+        final int sorts = Primitives.pack(args);
+        // visitor, id & return type
+        int maxStack = 3;
+        if (args.length == 0 || sorts >= 0) {
+            maxStack = Math.max(maxStack, writePassive(vis, clazz, ret, id, args, sorts));
+        }
 
-        // null check
-        vis.visitVarInsn(Opcodes.ALOAD, 0);
-        vis.visitInsn(Opcodes.DUP);
-        vis.visitInsn(Opcodes.MONITORENTER); // synchronized so it's safe to create a new list
-        vis.visitFieldInsn(Opcodes.GETFIELD, clazz, var, Type.getDescriptor(List.class));
-        final Label nonNull = new Label();
-        vis.visitJumpInsn(Opcodes.IFNONNULL, nonNull);
-
-        vis.visitVarInsn(Opcodes.ALOAD, 0); // this
-        vis.visitInsn(Opcodes.DUP);
         // call visitors and return using the impl
-        vis.visitFieldInsn(Opcodes.GETFIELD, clazz, IMPL, IMPL_DESC);
-        vis.visitLdcInsn(key);
-        vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, IMPL_NAME, "init",
-                "(Ljava/lang/String;)Ljava/util/List;", false);
-        vis.visitFieldInsn(Opcodes.PUTFIELD, clazz, var, Type.getDescriptor(List.class));
-
-        // else
-        vis.visitLabel(nonNull);
         vis.visitVarInsn(Opcodes.ALOAD, 0); // this
-        vis.visitInsn(Opcodes.DUP);
-        vis.visitInsn(Opcodes.MONITOREXIT); // synchronized exit
-
-        // call visitors and return using the impl
         vis.visitFieldInsn(Opcodes.GETFIELD, clazz, IMPL, IMPL_DESC);
-        vis.visitVarInsn(Opcodes.ALOAD, 0);
-        vis.visitFieldInsn(Opcodes.GETFIELD, clazz, var, Type.getDescriptor(List.class));
-        vis.visitLdcInsn(key);
+        writeInt(vis, id);
 
-        final Type ret = Type.getReturnType(descriptor);
         pushClass(vis, ret);
-        final Type[] args = Type.getArgumentTypes(descriptor);
         if (args.length == 0) {
             vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, IMPL_NAME, "run",
-                    "(Ljava/util/List;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;", false);
+                    "(ILjava/lang/Class;)Ljava/lang/Object;", false);
+        } else if (sorts >= 0) {
+            // only primitive args, pass them as raw bits so they don't need boxing
+            vis.visitIntInsn(Opcodes.SIPUSH, sorts);
+            writeRawArgs(vis, args);
+            // sorts, and each arg as a long
+            maxStack += 1 + 2 * args.length;
+            vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, IMPL_NAME, args.length == 1 ? "runJ" : "runJJ",
+                    args.length == 1
+                            ? "(ILjava/lang/Class;IJ)Ljava/lang/Object;"
+                            : "(ILjava/lang/Class;IJJ)Ljava/lang/Object;", false);
         } else {
             writeArgsArray(vis, args);
             vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, IMPL_NAME, "run",
-                    "(Ljava/util/List;Ljava/lang/String;Ljava/lang/Class;[Ljava/lang/Object;)Ljava/lang/Object;", false);
+                    "(ILjava/lang/Class;[Ljava/lang/Object;)Ljava/lang/Object;", false);
+            // array, dup'd array, index & the arg before it's boxed
+            maxStack += 3 + 2;
         }
         cast(vis, ret);
         vis.visitInsn(ret.getOpcode(Opcodes.IRETURN));
-        vis.visitMaxs(2, 1 + args.length);
-        wr.visitEnd();
+        vis.visitMaxs(maxStack, Type.getArgumentsAndReturnSizes(descriptor) >> 2);
+        vis.visitEnd();
+    }
+
+    /**
+     * Writes "if (visitor.passive(id, ...)) return default;" where default is the constant Defaults.Impl would return
+     * for ret (see Visitor::passive). Passive mocks only use those defaults, so they don't need to be looked up.
+     * @param vis visitor to add bytecode to
+     * @param clazz class name
+     * @param ret return type of the method
+     * @param id id of the method
+     * @param args arguments of the method, either none or up to two primitives
+     * @param sorts packed sorts of args (see Primitives)
+     * @return max stack size used
+     */
+    private static int writePassive(final MethodVisitor vis,
+                                    final String clazz,
+                                    final Type ret,
+                                    final int id,
+                                    final Type[] args,
+                                    final int sorts) {
+        final Label active = new Label();
+        vis.visitVarInsn(Opcodes.ALOAD, 0); // this
+        vis.visitFieldInsn(Opcodes.GETFIELD, clazz, IMPL, IMPL_DESC);
+        writeInt(vis, id);
+        if (args.length == 0) {
+            vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, IMPL_NAME, "passive", "(I)Z", false);
+        } else {
+            vis.visitIntInsn(Opcodes.SIPUSH, sorts);
+            writeRawArgs(vis, args);
+            if (args.length == 1) {
+                vis.visitInsn(Opcodes.LCONST_0);
+            }
+            vis.visitMethodInsn(Opcodes.INVOKEVIRTUAL, IMPL_NAME, "passive", "(IIJJ)Z", false);
+        }
+        vis.visitJumpInsn(Opcodes.IFEQ, active);
+        switch (ret.getSort()) {
+            case Type.VOID:
+                break;
+            case Type.LONG:
+                vis.visitInsn(Opcodes.LCONST_0);
+                break;
+            case Type.FLOAT:
+                vis.visitInsn(Opcodes.FCONST_0);
+                break;
+            case Type.DOUBLE:
+                vis.visitInsn(Opcodes.DCONST_0);
+                break;
+            case Type.OBJECT:
+            case Type.ARRAY:
+                vis.visitInsn(Opcodes.ACONST_NULL);
+                break;
+            default:
+                // boolean, char, byte, short & int
+                vis.visitInsn(Opcodes.ICONST_0);
+        }
+        vis.visitInsn(ret.getOpcode(Opcodes.IRETURN));
+        vis.visitLabel(active);
+        vis.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        // visitor & id, then sorts and both args as longs
+        return args.length == 0 ? 2 : 7;
     }
 
     /**
@@ -432,34 +1020,92 @@ public class Mockery {
      * @param clazz class to instantiate
      * @param impl implementation of the class to spy on, or null
      * @param defaults default return types to use in the mock
+     * @param filter methods to mock
      * @param <T> type of the class
      * @return a new instance of clazz we can mock
      */
     @SuppressWarnings("unchecked")
     private static <T> T build(final Class<?> clazz,
                                final T impl,
-                               final Defaults defaults,
-                               final boolean trackHistory) {
-        try {
-            Description<?> mock;
-            // using synchronized because we assume that this has typically single threaded
-            // access, so a ConcurrentHashMap is overkill
-            synchronized (TYPE_CACHE) {
-                mock = TYPE_CACHE.get(clazz);
-                if (mock == null) {
-                    mock = inject(clazz);
-                    TYPE_CACHE.put(clazz, mock);
+                               final Defaults requested,
+                               final boolean trackHistory,
+                               final MethodFilter filter) {
+        final Defaults defaults;
+        if (requested instanceof Defaults.Deep) {
+            Defaults.Deep.preloadChildren(clazz);
+            // so that children track history the same as their parent
+            defaults = ((Defaults.Deep) requested).withHistory(trackHistory);
+        } else {
+            defaults = requested;
+        }
+        if (impl == null && tiered && clazz.isInterface() && filter == MethodFilter.DEFAULT) {
+            final Generation<Description<?>> task = typeCache.get(clazz);
+            if (!task.isDone()) {
+                final T mock = (T) ProxyMock.create(clazz, defaults, trackHistory);
+                if (mock != null) {
+                    task.start();
+                    return mock;
                 }
             }
-            final T instance = OBJENESIS_STD.newInstance((Class<T>) mock.clazz);
+        }
+        try {
+            final Description<?> mock = describe(clazz, filter);
             final Proxy<T> proxy = impl == null ? null : (Proxy<T>) mock.proxy(impl);
-            ((Trackable) instance).setVisitor(new Visitor<>(proxy, defaults, trackHistory));
-            return instance;
+            return (T) mock.newInstance(new Visitor<>(proxy, defaults, trackHistory, mock.keys));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Generates the classes for every type that hasn't been mocked yet, in parallel. Failures aren't thrown here,
+     * they're thrown when the type is mocked (see describe)
+     * @param classes classes to generate mocks for
+     */
+    private static void generateAll(final Collection<Class<?>> classes) {
+        final ClassValue<Generation<Description<?>>> cache = typeCache;
+        final List<FutureTask<Description<?>>> pending = new ArrayList<>(classes.size());
+        for (final Class<?> clazz : classes) {
+            final FutureTask<Description<?>> task = cache.get(clazz);
+            if (!task.isDone()) {
+                pending.add(task);
+            }
+        }
+        // tasks already running in another thread are skipped, describe waits for them
+        pending.parallelStream().forEach(FutureTask::run);
+    }
+
+    /**
+     * Gets the generated class for clazz, generating it if this is the first time it's been mocked.
+     * Cached types are looked up without locking, and different types can be generated in parallel.
+     * @param clazz class to mock
+     * @param filter methods to mock
+     * @return description of the generated class
+     * @throws Exception if we fail to generate the class
+     */
+    private static Description<?> describe(final Class<?> clazz, final MethodFilter filter) throws Exception {
+        final ClassValue<Generation<Description<?>>> cache = typeCache;
+        final ConcurrentMap<MethodFilter, FutureTask<Description<?>>> filtered = filter == MethodFilter.DEFAULT
+                ? null
+                : filteredCache.get(clazz);
+        final FutureTask<Description<?>> task = filtered == null
+                ? cache.get(clazz)
+                : filtered.computeIfAbsent(filter, f -> new FutureTask<>(() -> inject(clazz, f)));
+        // no-op unless we're the first to get here
+        task.run();
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // don't cache failures, so the next call gets the same error
+            if (filtered == null) {
+                cache.remove(clazz);
+            } else {
+                filtered.remove(filter, task);
+            }
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
     /**
      * Returns the visitor related to a mock, or throws if o isn't Trackable. This is done at runtime to simplify the
      * external api.
@@ -481,6 +1127,14 @@ public class Mockery {
         void setVisitor(final Visitor<?> visitor);
     }
 
+    /**
+     * Implemented by mocks of interfaces, so we can create them with a plain allocation instead of through objenesis.
+     * Their constructor only calls Object's, so it's safe to call. Each Description keeps one instance to call this on
+     */
+    public interface Factory {
+        Trackable newMock(final Visitor<?> visitor);
+    }
+
     /**
      * Sentinel class to guarantee that the getVisitor interface is unique
      */
@@ -543,6 +1197,24 @@ public class Mockery {
         }
     }
 
+    /**
+     * Writes the given int to the stack, using the smallest instruction that can hold it
+     *
+     * @param vis visitor to add bytecode to
+     * @param value value to write to the stack
+     */
+    private static void writeInt(final MethodVisitor vis, final int value) {
+        if (value <= 5) {
+            vis.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            vis.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            vis.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            vis.visitLdcInsn(value);
+        }
+    }
+
     /**
      * reads arguments from the stack and writes them back as an Object[] array, based on the type args
      *
@@ -574,40 +1246,114 @@ public class Mockery {
     }
 
     /**
-     * Loads a new class called "name" from bytes
-     * @param parent parent class name extends/implements
-     * @param name name of the class
-     * @param b bytes describing the class
-     * @return a new class
+     * reads primitive arguments and writes them back to the stack as their raw bits, widened to longs
+     * (see Primitives)
+     *
+     * @param vis  visitor to add bytecode to
+     * @param args type of args to read and write to the stack
      */
-    private static Class<?> loadClass(final Class<?> parent, final String name, final byte[] b) throws Exception {
-        final Method method = Class.forName("java.lang.ClassLoader").getDeclaredMethod("defineClass",
-                String.class, byte[].class, int.class, int.class);
-        try {
-            method.setAccessible(true);
-            return (Class<?>) method.invoke(parent.getClassLoader(), name, b, 0, b.length);
-        } finally {
-            method.setAccessible(false);
+    private static void writeRawArgs(final MethodVisitor vis, final Type[] args) {
+        int j = 1;
+        for (final Type arg : args) {
+            vis.visitVarInsn(arg.getOpcode(Opcodes.ILOAD), j);
+            j += arg.getSize();
+            switch (arg.getSort()) {
+                case Type.LONG:
+                    break;
+                case Type.DOUBLE:
+                    vis.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToRawLongBits",
+                            "(D)J", false);
+                    break;
+                case Type.FLOAT:
+                    vis.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "floatToRawIntBits",
+                            "(F)I", false);
+                    vis.visitInsn(Opcodes.I2L);
+                    break;
+                default:
+                    vis.visitInsn(Opcodes.I2L);
+            }
+        }
+    }
+
+    /**
+     * Generates a type, either in the calling thread (run) or in the background (start)
+     * @param <V> result type
+     */
+    static final class Generation<V> extends FutureTask<V> {
+        // whether it's been submitted to the pool, so that it's only queued once however many times it's started
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        Generation(final Callable<V> callable) {
+            super(callable);
+        }
+
+        /**
+         * Runs this in the background, unless it's already done or been started
+         * @return true if this call submitted it
+         */
+        boolean start() {
+            if (isDone() || !started.compareAndSet(false, true)) {
+                return false;
+            }
+            ForkJoinPool.commonPool().execute(this);
+            return true;
         }
     }
 
     private static final class Description<T> {
         final Class<T> clazz;
-        Map<Class, Function> entries = null;
+        // method name + descriptor of each method, indexed by id
+        final String[] keys;
+        // creates new instances of interface mocks, null for classes
+        final Factory factory;
+        // creates new instances of class mocks, null for interfaces
+        final ObjectInstantiator<T> instantiator;
+        final ConcurrentMap<Class<?>, Function> entries = new ConcurrentHashMap<>();
 
-        public Description(final Class<T> clazz) {
+        /**
+         * @param clazz generated class
+         * @param keys method name + descriptor of each method, indexed by id
+         * @param constructor no-args constructor, if the class can't be instantiated by objenesis (i.e it's hidden)
+         */
+        public Description(final Class<T> clazz, final String[] keys, final MethodHandle constructor) {
             this.clazz = Objects.requireNonNull(clazz);
+            this.keys = Objects.requireNonNull(keys);
+            if (Factory.class.isAssignableFrom(clazz)) {
+                // the first instance is only used to create the rest
+                try {
+                    this.factory = (Factory) (constructor == null
+                            ? OBJENESIS_STD.newInstance(clazz)
+                            : constructor.invoke());
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+                this.instantiator = null;
+            } else {
+                this.factory = null;
+                this.instantiator = OBJENESIS_STD.getInstantiatorOf(clazz);
+            }
         }
 
+        /**
+         * @param visitor visitor for the new instance
+         * @return a new instance of clazz, using visitor
+         */
         @SuppressWarnings("unchecked")
-        public Proxy<T> proxy(final Object impl) {
-            if (entries == null) {
-                entries = new HashMap<>();
+        public T newInstance(final Visitor<?> visitor) {
+            if (factory != null) {
+                return (T) factory.newMock(visitor);
             }
+            final T instance = instantiator.newInstance();
+            ((Trackable) instance).setVisitor(visitor);
+            return instance;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Proxy<T> proxy(final Object impl) {
             Function fn = entries.get(impl.getClass());
             if (fn == null) {
-                fn = Proxy.build(impl.getClass());
-                entries.put(impl.getClass(), fn);
+                fn = Proxy.build(impl.getClass(), keys);
+                entries.putIfAbsent(impl.getClass(), fn);
             }
             return (Proxy<T>) fn.apply(impl);
         }
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import com.mikeleith.mockery.MethodFilter;
+import com.mikeleith.mockery.Mockery;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * On-disk cache of generated mock classes, so that separate JVMs (e.g forked test runs) don't need to regenerate
+ * them. Entries are keyed by a hash of the bytes of the mocked class and every class in its hierarchy, along with
+ * the classes that generate mocks (see GENERATOR), so changing any of them (e.g upgrading Mockery) generates a new
+ * entry. Stale entries are never removed, delete the directory to clear them.
+ *
+ * Classes can also be generated at build time (see Mockery.pregenerate), in which case they're stored in the same
+ * format as resources under RESOURCES, next to the mocked class. An INDEX resource is written alongside them, so
+ * loaders without any pregenerated classes can be skipped without hashing anything.
+ *
+ * Generated class names are unique per JVM, so cached classes are renamed when they're read back (see rename).
+ */
+public final class ClassCache {
+    public static final String RESOURCES = "META-INF/mockery/";
+    public static final String INDEX = RESOURCES + "index";
+    // classes whose code decides what a generated class looks like
+    private static final Class<?>[] GENERATOR = new Class<?>[]{
+            Mockery.class, MethodFilter.class, Visitor.class, Primitives.class, RootClassVisitor.class,
+            MethodCollector.class, MethodSummary.class, ClassCache.class, ClassWriter.class
+    };
+    // hash of GENERATOR's class files, included in every key. null if we can't read them, which disables caching
+    private static final byte[] GENERATOR_HASH = generatorHash();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // whether each loader can see INDEX, checked once per loader. Weak so it doesn't keep loaders alive
+    private static final Map<ClassLoader, Boolean> PREGENERATED = Collections.synchronizedMap(new WeakHashMap<>());
+    private final Path dir;
+
+    public ClassCache(final Path dir) {
+        this.dir = Objects.requireNonNull(dir);
+    }
+
+    /**
+     * @param target mocked class
+     * @return the cached entry for target, or null if there isn't one (or we can't read it)
+     */
+    public Entry get(final Class<?> target) {
+        return get(key(target));
+    }
+
+    /**
+     * @param key key of the mocked class (see key)
+     * @return the cached entry for key, or null if there isn't one (or we can't read it)
+     */
+    public Entry get(final String key) {
+        if (key == null) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(dir.resolve(key))) {
+            return read(in);
+        } catch (IOException e) {
+            // either missing, or corrupt and will be replaced by the next put
+            return null;
+        }
+    }
+
+    /**
+     * @param target mocked class
+     * @return the entry generated at build time for target, or null if there isn't one (or it's out of date)
+     */
+    public static Entry getPregenerated(final Class<?> target) {
+        return hasPregenerated(target.getClassLoader()) ? getPregenerated(target, key(target)) : null;
+    }
+
+    /**
+     * @param target mocked class
+     * @param key key of target (see key)
+     * @return the entry generated at build time for target, or null if there isn't one (or it's out of date)
+     */
+    public static Entry getPregenerated(final Class<?> target, final String key) {
+        if (key == null || !hasPregenerated(target.getClassLoader())) {
+            return null;
+        }
+        try (InputStream in = open(target.getClassLoader(), RESOURCES + key)) {
+            return in == null ? null : read(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Caches entry for target. Failing to write to the cache isn't fatal, so errors are ignored
+     * @param target mocked class
+     * @param entry generated class
+     * @return true if the entry was written
+     */
+    public boolean put(final Class<?> target, final Entry entry) {
+        return put(key(target), entry);
+    }
+
+    /**
+     * Caches entry under key. Failing to write to the cache isn't fatal, so errors are ignored
+     * @param key key of the mocked class (see key)
+     * @param entry generated class
+     * @return true if the entry was written
+     */
+    public boolean put(final String key, final Entry entry) {
+        if (key == null) {
+            return false;
+        }
+        try {
+            Files.createDirectories(dir);
+            // other JVMs may be reading/writing the same entry, so write to a temp file and move it into place
+            final Path tmp = Files.createTempFile(dir, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeInt(entry.keys.length);
+                for (final String k : entry.keys) {
+                    out.writeUTF(k);
+                }
+                out.writeInt(entry.bytes.length);
+                out.write(entry.bytes);
+            }
+            try {
+                Files.move(tmp, dir.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return true;
+        } catch (IOException e) {
+            // just regenerate next time
+            return false;
+        }
+    }
+
+    /**
+     * Writes entry as a pregenerated class for target, see getPregenerated
+     * @param root root of a classpath directory
+     * @param target mocked class
+     * @param entry generated class
+     * @return true if the entry was written
+     */
+    public static boolean putPregenerated(final Path root, final Class<?> target, final Entry entry) {
+        if (!new ClassCache(root.resolve(RESOURCES)).put(target, entry)) {
+            return false;
+        }
+        try {
+            final Path index = root.resolve(INDEX);
+            if (!Files.exists(index)) {
+                Files.createFile(index);
+            }
+        } catch (IOException e) {
+            return false;
+        } finally {
+            // loaders we've already checked may be able to see it now
+            PREGENERATED.clear();
+        }
+        return true;
+    }
+
+    /**
+     * @param target mocked class
+     * @return whether target's loader can see any pregenerated classes, if not there's no point looking one up
+     */
+    public static boolean hasPregenerated(final Class<?> target) {
+        return hasPregenerated(target.getClassLoader());
+    }
+
+    private static boolean hasPregenerated(final ClassLoader loader) {
+        return PREGENERATED.computeIfAbsent(loader, l -> l == null
+                ? ClassLoader.getSystemResource(INDEX) != null
+                : l.getResource(INDEX) != null);
+    }
+
+    private static Entry read(final InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(stream);
+        final String[] keys = new String[in.readInt()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = in.readUTF();
+        }
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new Entry(keys, bytes);
+    }
+
+    /**
+     * @param target mocked class
+     * @return a hash of target, its hierarchy and the generator, or null if we can't read one of their class files
+     */
+    public static String key(final Class<?> target) {
+        return key(target, GENERATOR_HASH);
+    }
+
+    /**
+     * @param target mocked class
+     * @param generator hash of the generator, or null if it's unknown
+     * @return a hash of target, its hierarchy and generator, or null if we can't read one of their class files
+     */
+    static String key(final Class<?> target, final byte[] generator) {
+        if (generator == null) {
+            return null;
+        }
+        final Set<Class<?>> hierarchy = new LinkedHashSet<>();
+        collect(target, hierarchy);
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(generator);
+            if (!update(digest, hierarchy.toArray(new Class<?>[0]))) {
+                return null;
+            }
+            final byte[] hash = digest.digest();
+            final char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a hash of the class files of GENERATOR, or null if we can't read them
+     */
+    private static byte[] generatorHash() {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return update(digest, GENERATOR) ? digest.digest() : null;
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Adds the names and class files of classes to digest
+     * @param digest digest to update
+     * @param classes classes to add
+     * @return false if we couldn't find one of their class files
+     * @throws IOException if we fail to read a class file
+     */
+    private static boolean update(final MessageDigest digest, final Class<?>[] classes) throws IOException {
+        for (final Class<?> clazz : classes) {
+            final byte[] bytes = read(clazz);
+            if (bytes == null) {
+                return false;
+            }
+            digest.update(clazz.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update(bytes);
+        }
+        return true;
+    }
+
+    private static void collect(final Class<?> clazz, final Set<Class<?>> hierarchy) {
+        if (clazz != null && hierarchy.add(clazz)) {
+            collect(clazz.getSuperclass(), hierarchy);
+            for (final Class<?> i : clazz.getInterfaces()) {
+                collect(i, hierarchy);
+            }
+        }
+    }
+
+    /**
+     * Reads a class file through the classes own loader
+     * @param clazz class to read
+     * @return the class file of clazz, or null if it can't be found
+     * @throws IOException if we fail to read the class
+     */
+    public static byte[] read(final Class<?> clazz) throws IOException {
+        try (InputStream in = open(clazz.getClassLoader(), clazz.getName().replace('.', '/') + ".class")) {
+            if (in == null) {
+                return null;
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static InputStream open(final ClassLoader loader, final String resource) {
+        return loader == null ? ClassLoader.getSystemResourceAsStream(resource) : loader.getResourceAsStream(resource);
+    }
+
+    /**
+     * Renames a class, by rewriting the constant pool entry holding its name. References to the class from within
+     * itself go through the same entry, so they're renamed too.
+     * @param bytes class file
+     * @param name new internal name
+     * @return the renamed class file
+     */
+    public static byte[] rename(final byte[] bytes, final String name) {
+        final ClassReader reader = new ClassReader(bytes);
+        final int classIndex = reader.readUnsignedShort(reader.header + 2);
+        // getItem gives the offset just after the entries tag, i.e a Utf8's u2 length
+        final int offset = reader.getItem(reader.readUnsignedShort(reader.getItem(classIndex)));
+        final int end = offset + 2 + reader.readUnsignedShort(offset);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + name.length());
+            out.write(bytes, 0, offset);
+            new DataOutputStream(out).writeUTF(name);
+            out.write(bytes, end, bytes.length - end);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A generated class, and the method keys for each of its method ids
+     */
+    public static final class Entry {
+        private final String[] keys;
+        private final byte[] bytes;
+
+        public Entry(final String[] keys, final byte[] bytes) {
+            this.keys = Objects.requireNonNull(keys);
+            this.bytes = Objects.requireNonNull(bytes);
+        }
+
+        public String[] getKeys() {
+            return keys;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Defines generated classes in the same package as the class they extend.
+ *
+ * Where we can (see canDefineInChildLoader), classes are defined in their own child of the target's classloader, so the
+ * mock can be unloaded without unloading the target. Otherwise they need to be in the same runtime package as their
+ * target, i.e the same classloader. We're compiled for Java 8, so the newer apis are looked up once as MethodHandles and used when available:
+ * * Java 15+: MethodHandles.Lookup::defineHiddenClass (see defineHidden). Hidden classes can be unloaded once
+ *   they're unreachable, but can't be named, so they can only be instantiated through their own lookup
+ * * Java 9+: MethodHandles.Lookup::defineClass
+ * * Java 8: ClassLoader::defineClass via reflection. This is the only option that needs setAccessible
+ *
+ * If a class's package isn't open to us we fall back to the next option.
+ */
+public final class ClassDefiner {
+    private static final MethodType CONSTRUCTOR = MethodType.methodType(void.class);
+    // (Class<?> target, Lookup caller) -> Lookup with private access to target
+    private static final MethodHandle PRIVATE_LOOKUP_IN;
+    // (Lookup, byte[]) -> Class<?>
+    private static final MethodHandle DEFINE_CLASS;
+    // (Lookup, byte[]) -> Lookup on the new class
+    private static final MethodHandle DEFINE_HIDDEN_CLASS;
+
+    static {
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle privateLookupIn = null;
+        MethodHandle defineClass = null;
+        MethodHandle defineHiddenClass = null;
+        try {
+            privateLookupIn = lookup.findStatic(MethodHandles.class, "privateLookupIn",
+                    MethodType.methodType(MethodHandles.Lookup.class, Class.class, MethodHandles.Lookup.class));
+            defineClass = lookup.findVirtual(MethodHandles.Lookup.class, "defineClass",
+                    MethodType.methodType(Class.class, byte[].class));
+            final Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            final Object options = Array.newInstance(option, 0);
+            // defineHiddenClass(bytes, true) with no options, i.e not a nestmate and unloadable once unreachable
+            defineHiddenClass = MethodHandles.insertArguments(lookup.findVirtual(MethodHandles.Lookup.class,
+                    "defineHiddenClass", MethodType.methodType(MethodHandles.Lookup.class, byte[].class,
+                            boolean.class, options.getClass())), 2, true, options);
+        } catch (ReflectiveOperationException e) {
+            // older jdk, use whatever we found
+        }
+        PRIVATE_LOOKUP_IN = privateLookupIn;
+        DEFINE_CLASS = defineClass;
+        DEFINE_HIDDEN_CLASS = defineHiddenClass;
+    }
+
+    private ClassDefiner() {}
+
+    /**
+     * @param target class the generated class extends/implements. It will be defined in the same package
+     * @param name binary name of the generated class, must be in the same package as target
+     * @param bytes class file
+     * @return the defined class
+     * @throws Exception if the class can't be defined
+     */
+    public static Class<?> define(final Class<?> target, final String name, final byte[] bytes) throws Exception {
+        if (canDefineInChildLoader(target)) {
+            return new ChildLoader(target.getClassLoader()).define(name, bytes);
+        }
+        final MethodHandles.Lookup lookup = privateLookupIn(target);
+        if (lookup == null) {
+            return defineReflectively(target, name, bytes);
+        }
+        try {
+            return (Class<?>) DEFINE_CLASS.invoke(lookup, bytes);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Defines bytes as a hidden class, if the jdk supports them and we're allowed to
+     * @param target class the generated class extends/implements. It will be defined in the same package
+     * @param bytes class file. The class must have a no-args constructor
+     * @return a handle to the new classes no-args constructor, or null if we can't define
+     *         hidden classes for target
+     * @throws Exception if the class can't be defined
+     */
+    public static MethodHandle defineHidden(final Class<?> target, final byte[] bytes) throws Exception {
+        final MethodHandles.Lookup lookup = DEFINE_HIDDEN_CLASS == null ? null : privateLookupIn(target);
+        if (lookup == null) {
+            return null;
+        }
+        final MethodHandles.Lookup hidden;
+        try {
+            hidden = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(lookup, bytes);
+        } catch (IllegalAccessException e) {
+            // hidden classes need full privilege access, which we won't have across modules
+            return null;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+        return hidden.findConstructor(hidden.lookupClass(), CONSTRUCTOR);
+    }
+
+    /**
+     * A class defined in a different classloader is in a different runtime package, so it can only extend target if
+     * it's public, and can't override its package-private methods (calls to them would silently skip the mock)
+     * @param target class the generated class extends/implements
+     * @return whether a class extending target can be defined in a child of target's classloader
+     */
+    static boolean canDefineInChildLoader(final Class<?> target) {
+        if (!Modifier.isPublic(target.getModifiers()) || target.getClassLoader() == null) {
+            return false;
+        }
+        for (Class<?> c = target; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (final Method method : c.getDeclaredMethods()) {
+                if ((method.getModifiers() & (Modifier.PUBLIC | Modifier.PROTECTED | Modifier.PRIVATE
+                        | Modifier.STATIC)) == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param target class to get a lookup for
+     * @return a lookup with private access to target, or null if that isn't supported/allowed
+     */
+    private static MethodHandles.Lookup privateLookupIn(final Class<?> target) throws Exception {
+        if (PRIVATE_LOOKUP_IN == null) {
+            return null;
+        }
+        try {
+            return (MethodHandles.Lookup) PRIVATE_LOOKUP_IN.invoke(target, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            // target's package isn't open to us, see if reflection is allowed instead
+            return null;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Class<?> defineReflectively(final Class<?> target,
+                                               final String name,
+                                               final byte[] bytes) throws Exception {
+        final Method method = ClassLoader.class.getDeclaredMethod("defineClass",
+                String.class, byte[].class, int.class, int.class);
+        try {
+            method.setAccessible(true);
+            return (Class<?>) method.invoke(target.getClassLoader(), name, bytes, 0, bytes.length);
+        } finally {
+            method.setAccessible(false);
+        }
+    }
+
+    /**
+     * Classloader holding a single mock class. It's only reachable from the mock class (and its instances),
+     * so the two are unloaded together once they're no longer used
+     */
+    private static final class ChildLoader extends ClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        ChildLoader(final ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(final String name, final byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static Exception rethrow(final Throwable e) {
+        if (e instanceof Exception) {
+            return (Exception) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new RuntimeException(e);
+    }
+}
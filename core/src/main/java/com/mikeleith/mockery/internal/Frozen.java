@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Compiles the stubs of a mock into MethodHandles, for frozen mocks (see Mockery.freeze).
+ *
+ * Each method becomes a chain of guardWithTests of its stubs' matchers, newest first, ending with the default/spied
+ * method. Answers that always return the same value are constants. Methods with more stubs than MAX_GUARDS look them up
+ * in a copy of their Stubs instead. Frozen classes call each method through an invokedynamic
+ * call site linked to its handle (see bootstrap), so the JIT can inline a stubbed call down to its answer.
+ */
+public final class Frozen {
+    // static field of frozen classes holding the handle of each method, indexed by id
+    public static final String HANDLES = "handles";
+    // most stubs of a method that are compiled into guards
+    private static final int MAX_GUARDS = 16;
+    // (Predicate, Object) -> boolean
+    private static final MethodHandle TEST;
+    // (Fn, Object[]) -> Object
+    private static final MethodHandle APPLY;
+    // (Proxy, int, Object[]) -> Object
+    private static final MethodHandle MATCH;
+    // (Stubs, MethodHandle, Object[]) -> Object
+    private static final MethodHandle ANSWER;
+
+    static {
+        final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            TEST = lookup.findVirtual(Predicate.class, "test", MethodType.methodType(boolean.class, Object.class));
+            APPLY = lookup.findVirtual(Visitor.Fn.class, "apply",
+                    MethodType.methodType(Object.class, Object[].class));
+            MATCH = lookup.findVirtual(Proxy.class, "match",
+                    MethodType.methodType(Object.class, int.class, Object[].class));
+            ANSWER = MethodHandles.lookup().findStatic(Frozen.class, "answer",
+                    MethodType.methodType(Object.class, Stubs.class, MethodHandle.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Frozen() {}
+
+    /**
+     * @param visitor visitor of the mock to freeze
+     * @param loader loader that can see the types used by the mock's methods
+     * @return a handle for each of the mock's methods, indexed by id. Each has the method's type, without a receiver
+     */
+    public static MethodHandle[] compile(final Visitor<?> visitor, final ClassLoader loader) {
+        final MethodHandle[] handles = new MethodHandle[visitor.size()];
+        for (int id = 0; id < handles.length; id++) {
+            final String key = visitor.getKey(id);
+            final MethodType type = MethodType.fromMethodDescriptorString(key.substring(key.indexOf('(')), loader);
+            handles[id] = compile(visitor, id, type);
+        }
+        return handles;
+    }
+
+    /**
+     * Links a frozen method, called by the JVM the first time each invokedynamic instruction runs
+     * @param lookup lookup on the frozen class
+     * @param name method name
+     * @param type method type, without the receiver
+     * @param id method id
+     * @return a call site for the method's handle
+     * @throws Throwable if the frozen class has no handles
+     */
+    public static CallSite bootstrap(final MethodHandles.Lookup lookup,
+                                     final String name,
+                                     final MethodType type,
+                                     final int id) throws Throwable {
+        final MethodHandle[] handles = (MethodHandle[]) lookup
+                .findStaticGetter(lookup.lookupClass(), HANDLES, MethodHandle[].class)
+                .invokeExact();
+        // handles never change once frozen, so there's no need for a MutableCallSite
+        return new ConstantCallSite(handles[id].asType(type));
+    }
+
+    private static MethodHandle compile(final Visitor<?> visitor, final int id, final MethodType type) {
+        final Class<?>[] params = type.parameterArray();
+        final MethodHandle fallback;
+        if (visitor.getImpl() != null) {
+            fallback = MethodHandles.insertArguments(MATCH.bindTo(visitor.getImpl()), 0, id)
+                    .asCollector(Object[].class, params.length)
+                    .asType(type);
+        } else {
+            fallback = constant(type, visitor.getDefault(id, type.returnType()));
+        }
+
+        final Stubs stubs = visitor.getStubs(id);
+        if (stubs == null) {
+            return fallback;
+        }
+        final List<Visitor.Callback> callbacks = stubs.callbacks();
+        if (callbacks.size() > MAX_GUARDS) {
+            final Stubs copy = new Stubs();
+            for (int i = callbacks.size() - 1; i >= 0; i--) {
+                copy.add(callbacks.get(i));
+            }
+            return MethodHandles.insertArguments(ANSWER, 0, copy, fallback)
+                    .asCollector(Object[].class, params.length)
+                    .asType(type);
+        }
+        MethodHandle handle = fallback;
+        // oldest first, so the newest is tested first
+        for (int i = callbacks.size() - 1; i >= 0; i--) {
+            handle = guard(callbacks.get(i), type, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * @param callback callback to compile
+     * @param type method type
+     * @param otherwise handle to call if callback doesn't match
+     * @return a handle calling callback's answer if it matches, and otherwise otherwise
+     */
+    private static MethodHandle guard(final Visitor.Callback callback,
+                                      final MethodType type,
+                                      final MethodHandle otherwise) {
+        final Class<?>[] params = type.parameterArray();
+        if (callback.args.length != params.length) {
+            return otherwise;
+        }
+        final Visitor.Fn settled = callback.fn.settled();
+        final MethodHandle answer;
+        if (settled != null && settled.isConstant()) {
+            try {
+                answer = constant(type, settled.apply(Visitor.EMPTY));
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            answer = APPLY.bindTo(settled == null ? callback.fn : settled)
+                    .asCollector(Object[].class, params.length)
+                    .asType(type);
+        }
+
+        // all of the matchers, tested in order
+        MethodHandle test = null;
+        for (int i = 0; i < params.length; i++) {
+            MethodHandle matcher = TEST.bindTo(callback.args[i])
+                    .asType(MethodType.methodType(boolean.class, params[i]));
+            matcher = MethodHandles.dropArguments(matcher, 0, Arrays.copyOfRange(params, 0, i));
+            matcher = MethodHandles.dropArguments(matcher, i + 1, Arrays.copyOfRange(params, i + 1, params.length));
+            test = test == null
+                    ? matcher
+                    : MethodHandles.guardWithTest(test, matcher, constant(matcher.type(), false));
+        }
+        return test == null ? answer : MethodHandles.guardWithTest(test, answer, otherwise);
+    }
+
+    /**
+     * Used for methods with too many stubs to compile
+     * @param stubs the method's stubs
+     * @param fallback handle to call if none match
+     * @param args arguments of the call
+     * @return the result of the newest matching stub, or of fallback
+     * @throws Throwable if the stub or fallback throws
+     */
+    private static Object answer(final Stubs stubs, final MethodHandle fallback, final Object[] args) throws Throwable {
+        final Visitor.Callback callback = stubs.find(args);
+        return callback != null ? callback.fn.apply(args) : fallback.invokeWithArguments(args);
+    }
+
+    /**
+     * @param type type of the handle
+     * @param value value to return
+     * @return a handle of type that ignores its arguments and returns value
+     */
+    private static MethodHandle constant(final MethodType type, final Object value) {
+        return MethodHandles.dropArguments(MethodHandles.constant(Object.class, value)
+                .asType(MethodType.methodType(type.returnType())), 0, type.parameterArray());
+    }
+}
@@ -22,27 +22,65 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Collects the methods of a class and everything it extends/implements. Each ancestor is only parsed once,
+ * its methods (merged with its own ancestors) are cached and shared between every class that extends it.
+ *
+ * Only methods a mock can override are collected, so static/private methods, static initializers and finalize are
+ * always skipped, as are Object's protected methods (which callers can't invoke on the mock anyway).
+ */
 class MethodCollector extends ClassVisitor {
+    // ancestors always ignore final methods, whatever the root ignores
+    private static final ClassValue<Set<MethodSummary>> HIERARCHY = new ClassValue<Set<MethodSummary>>() {
+        @Override
+        protected Set<MethodSummary> computeValue(final Class<?> type) {
+            final MethodCollector collector = new MethodCollector(Opcodes.ACC_FINAL,
+                    false, Collections.emptySet(), new HashSet<>(), type.getClassLoader());
+            try {
+                read(type, collector);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return Collections.unmodifiableSet(collector.methods);
+        }
+    };
+
     private final boolean matchConstructors;
     protected final Set<MethodSummary> constructors;
     protected final Set<MethodSummary> methods;
     private final int ignore;
+    // resolves the names of ancestors
+    private final ClassLoader loader;
+    // internal name of the class being visited
+    private String owner;
 
     public MethodCollector(final int ignore,
                            final boolean matchConstructors,
                            final Set<MethodSummary> constructors,
-                           final Set<MethodSummary> methods) {
+                           final Set<MethodSummary> methods,
+                           final ClassLoader loader) {
         super(Opcodes.ASM9, null);
         this.matchConstructors = matchConstructors;
         this.constructors = constructors;
         this.methods = methods;
         this.ignore = ignore;
+        this.loader = loader;
     }
 
-    public ClassVisitor getChildVisitor() {
-        return this;
+    /**
+     * Reads the signatures of clazz's methods, via the class's own loader
+     * @param clazz class to read
+     * @param visitor visitor to accept the class
+     * @throws IOException if we fail to read the class
+     */
+    static void read(final Class<?> clazz, final ClassVisitor visitor) throws IOException {
+        final byte[] bytes = ClassCache.read(clazz);
+        (bytes == null ? new ClassReader(clazz.getName()) : new ClassReader(bytes))
+                .accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
     }
 
     public Set<MethodSummary> getConstructors() {
@@ -63,23 +101,23 @@ class MethodCollector extends ClassVisitor {
         if ((access & Opcodes.ACC_FINAL) != 0) {
             throw new RuntimeException("final provided, expected a concrete class");
         }
+        this.owner = name;
+        // ancestors first, so that the first declaration of each method wins
+        for (int i = 0; i < interfaces.length; i++) {
+            methods.addAll(hierarchy(interfaces[i]));
+        }
+        if (superName != null) {
+            methods.addAll(hierarchy(superName));
+        }
+    }
+
+    private Set<MethodSummary> hierarchy(final String name) {
         try {
-            ClassVisitor vis = null;
-            if (interfaces.length != 0) {
-                vis = getChildVisitor();
-                for (int i = 0; i < interfaces.length; i++) {
-                    // there's no root interface, so don't have to worry about hitting java/lang methods
-                    new ClassReader(interfaces[i]).accept(vis, ClassReader.EXPAND_FRAMES);
-                }
-            }
-            if (superName != null) {
-                new ClassReader(superName).accept(vis == null ? getChildVisitor() : vis, ClassReader.EXPAND_FRAMES);
-            }
-        } catch (IOException e) {
+            return HIERARCHY.get(Class.forName(name.replace('/', '.'), false, loader));
+        } catch (ClassNotFoundException e) {
             throw new RuntimeException(e);
         }
     }
-
     @Override
     public MethodVisitor visitMethod(final int access,
                                      final String name,
@@ -90,9 +128,26 @@ class MethodCollector extends ClassVisitor {
             if (matchConstructors) {
                 constructors.add(new MethodSummary(name, descriptor, signature, exceptions));
             }
-        } else if (((access & ignore) == 0)) {
+        } else if ((access & (ignore | Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) == 0 && isMockable(name, descriptor)) {
             methods.add(new MethodSummary(name, descriptor, signature, exceptions));
         }
         return null;
     }
+
+    /**
+     * @param name method name
+     * @param descriptor method descriptor
+     * @return false for methods that are never worth overriding, even if their access flags allow it
+     */
+    private boolean isMockable(final String name, final String descriptor) {
+        if ("<clinit>".equals(name)) {
+            // only flagged static from java 7 class files onwards, copying an older one breaks the mock's class
+            return false;
+        } else if ("finalize".equals(name) && "()V".equals(descriptor)) {
+            // overriding finalize would make every mock finalizable, delaying when they (and their class) are freed
+            return false;
+        }
+        // Object's clone is protected, subclasses that make it public declare their own
+        return !("java/lang/Object".equals(owner) && "clone".equals(name));
+    }
 }
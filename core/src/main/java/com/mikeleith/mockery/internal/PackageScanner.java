@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+
+/**
+ * Finds the classes in a package (and its subpackages) on the classpath, from directories and jars.
+ * Packages are found with ClassLoader::getResources, so jars need directory entries (which they have by default).
+ */
+public final class PackageScanner {
+    private static final String CLASS = ".class";
+
+    private PackageScanner() {}
+
+    /**
+     * @param loader loader to search
+     * @param pkg name of the package, e.g com.foo
+     * @return the binary names of every class under pkg, in any of loader's classpath entries
+     * @throws IOException if we fail to read the classpath
+     */
+    public static Set<String> scan(final ClassLoader loader, final String pkg) throws IOException {
+        final String path = pkg.replace('.', '/');
+        final Set<String> classes = new TreeSet<>();
+        final Enumeration<URL> roots = loader.getResources(path);
+        while (roots.hasMoreElements()) {
+            final URL root = roots.nextElement();
+            if ("file".equals(root.getProtocol())) {
+                scanDirectory(root, pkg, classes);
+            } else if ("jar".equals(root.getProtocol())) {
+                scanJar(root, path, classes);
+            }
+        }
+        return classes;
+    }
+
+    private static void scanDirectory(final URL root, final String pkg, final Set<String> classes) throws IOException {
+        final Path dir;
+        try {
+            dir = Paths.get(root.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.map(f -> dir.relativize(f).toString())
+                    .filter(PackageScanner::isClass)
+                    .forEach(f -> classes.add(pkg + '.' + toName(f.replace(dir.getFileSystem().getSeparator(), "/"))));
+        }
+    }
+
+    private static void scanJar(final URL root, final String path, final Set<String> classes) throws IOException {
+        final JarURLConnection connection = (JarURLConnection) root.openConnection();
+        connection.setUseCaches(false);
+        try (JarFile jar = connection.getJarFile()) {
+            final Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                final String name = entries.nextElement().getName();
+                if (name.startsWith(path + '/') && isClass(name)) {
+                    classes.add(toName(name));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param file path of a file
+     * @return whether it's a class file, ignoring package-info/module-info
+     */
+    private static boolean isClass(final String file) {
+        return file.endsWith(CLASS) && !file.endsWith("-info" + CLASS);
+    }
+
+    /**
+     * @param file path of a class file, relative to a classpath root (or package), e.g com/foo/Bar$Baz.class
+     * @return its binary name, e.g com.foo.Bar$Baz
+     */
+    private static String toName(final String file) {
+        return file.substring(0, file.length() - CLASS.length()).replace('/', '.');
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import org.objectweb.asm.Type;
+
+/**
+ * Helpers for passing primitive arguments to the Visitor without boxing them.
+ *
+ * Methods whose arguments are all primitives (up to MAX_ARGS of them) pass each argument as its raw bits widened
+ * to a long, alongside a "sorts" int describing their types (the asm Type sort of each argument, packed 4 bits
+ * per argument). Arguments are only boxed if something actually needs them as Objects, e.g history or answers.
+ */
+public final class Primitives {
+    public static final int MAX_ARGS = 2;
+    private static final int BITS = 4;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private Primitives() {}
+
+    /**
+     * Packs the sorts of args into a single int
+     * @param args argument types of a method
+     * @return the packed sorts, or -1 if the arguments can't be passed as raw bits
+     */
+    public static int pack(final Type[] args) {
+        if (args.length == 0 || args.length > MAX_ARGS) {
+            return -1;
+        }
+        int sorts = 0;
+        for (int i = args.length - 1; i >= 0; i--) {
+            final int sort = args[i].getSort();
+            if (sort < Type.BOOLEAN || sort > Type.DOUBLE) {
+                return -1;
+            }
+            sorts = (sorts << BITS) | sort;
+        }
+        return sorts;
+    }
+
+    /**
+     * @param sorts packed sorts
+     * @param i argument index
+     * @return the sort of argument i, or Type.VOID if there is no such argument
+     */
+    public static int sort(final int sorts, final int i) {
+        return (sorts >>> (i * BITS)) & MASK;
+    }
+
+    /**
+     * @param sorts packed sorts
+     * @return the number of arguments described by sorts
+     */
+    public static int length(final int sorts) {
+        int len = 0;
+        while (sort(sorts, len) != Type.VOID) {
+            len++;
+        }
+        return len;
+    }
+
+    /**
+     * Boxes raw arguments into an Object[] matching what we'd have seen from the generic run method
+     * @param sorts packed sorts
+     * @param a0 raw bits of the first argument
+     * @param a1 raw bits of the second argument (ignored if there's only one)
+     * @return boxed arguments
+     */
+    public static Object[] box(final int sorts, final long a0, final long a1) {
+        final int len = length(sorts);
+        final Object[] args = new Object[len];
+        args[0] = box(sort(sorts, 0), a0);
+        if (len > 1) {
+            args[1] = box(sort(sorts, 1), a1);
+        }
+        return args;
+    }
+
+    /**
+     * Boxes a single raw argument
+     * @param sort asm sort of the argument
+     * @param bits raw bits of the argument
+     * @return boxed argument
+     */
+    public static Object box(final int sort, final long bits) {
+        switch (sort) {
+            case Type.BOOLEAN:
+                return bits != 0;
+            case Type.CHAR:
+                return (char) bits;
+            case Type.BYTE:
+                return (byte) bits;
+            case Type.SHORT:
+                return (short) bits;
+            case Type.INT:
+                return (int) bits;
+            case Type.FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case Type.LONG:
+                return bits;
+            case Type.DOUBLE:
+                return Double.longBitsToDouble(bits);
+            default:
+                throw new RuntimeException("not a primitive sort: " + sort);
+        }
+    }
+
+    /**
+     * @param o object to check
+     * @return the asm sort o would be passed as if it were unboxed, or Type.OBJECT if it isn't a boxed primitive
+     */
+    public static int sortOf(final Object o) {
+        if (o instanceof Integer) {
+            return Type.INT;
+        } else if (o instanceof Long) {
+            return Type.LONG;
+        } else if (o instanceof Double) {
+            return Type.DOUBLE;
+        } else if (o instanceof Boolean) {
+            return Type.BOOLEAN;
+        } else if (o instanceof Float) {
+            return Type.FLOAT;
+        } else if (o instanceof Character) {
+            return Type.CHAR;
+        } else if (o instanceof Short) {
+            return Type.SHORT;
+        } else if (o instanceof Byte) {
+            return Type.BYTE;
+        }
+        return Type.OBJECT;
+    }
+
+    /**
+     * Inverse of box(int, long)
+     * @param o a boxed primitive
+     * @return the raw bits a generated method would have passed for o
+     */
+    public static long bits(final Object o) {
+        if (o instanceof Boolean) {
+            return (Boolean) o ? 1 : 0;
+        } else if (o instanceof Character) {
+            return (Character) o;
+        } else if (o instanceof Float) {
+            return Float.floatToRawIntBits((Float) o);
+        } else if (o instanceof Double) {
+            return Double.doubleToRawLongBits((Double) o);
+        }
+        return ((Number) o).longValue();
+    }
+
+    /**
+     * Normalizes raw bits so that comparing them matches equals() on the boxed values (i.e NaNs collapse)
+     * @param sort asm sort of the value
+     * @param bits raw bits of the value
+     * @return bits that can be compared with ==
+     */
+    public static long canonical(final int sort, final long bits) {
+        switch (sort) {
+            case Type.BOOLEAN:
+                return bits != 0 ? 1 : 0;
+            case Type.FLOAT:
+                return Float.floatToIntBits(Float.intBitsToFloat((int) bits));
+            case Type.DOUBLE:
+                return Double.doubleToLongBits(Double.longBitsToDouble(bits));
+            default:
+                return bits;
+        }
+    }
+}
@@ -20,19 +20,24 @@ import org.objectweb.asm.Type;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
 
+/**
+ * Dispatches calls from a spy to the object it's spying on. Methods are looked up by the id the generated class
+ * gave them, see Visitor.
+ * @param <T> class we're spying on
+ */
 public class Proxy<T> {
     private final String[] keys;
     private final Method[] entries;
     private final T t;
 
     @SuppressWarnings("unchecked")
-    public static <T> Proxy<T> of(final T t) {
-        return Proxy.build((Class<T>) t.getClass()).apply(t);
+    public static <T> Proxy<T> of(final T t, final String[] keys) {
+        return Proxy.build((Class<T>) t.getClass(), keys).apply(t);
     }
 
     private Proxy(final T t, final String[] keys, final Method[] methods) {
@@ -41,45 +46,33 @@ public class Proxy<T> {
         this.keys = Objects.requireNonNull(keys);
     }
 
-    public Object match(final String key, final Object... args) throws InvocationTargetException, IllegalAccessException {
-        final int i = Arrays.binarySearch(keys, key);
-        if (i < 0) {
-            throw new RuntimeException("Method not found: " + key);
-        }
-        return entries[i].invoke(t, args);
-    }
-
-    public static <T> Function<T, Proxy<T>> build(final Class<T> clazz) {
-        // @todo: combine these loops, just need a multi-array sort method
-        final Method[] methods = clazz.getDeclaredMethods();
-        final Entry[] entries = new Proxy.Entry[methods.length];
-        for (int i = 0; i < methods.length; i++) {
-            final Method method = methods[i];
-            entries[i] = new Proxy.Entry(method.getName() + Type.getMethodDescriptor(method), method);
+    public Object match(final int id, final Object... args) throws InvocationTargetException, IllegalAccessException {
+        final Method method = entries[id];
+        if (method == null) {
+            throw new RuntimeException("Method not found: " + keys[id]);
         }
-        Arrays.sort(entries, Comparator.comparing(Proxy.Entry::getKey));
-
-        final String[] keys = new String[entries.length];
-        final Method[] methods1 = new Method[entries.length];
-        for (int i = 0; i < entries.length; i++) {
-            keys[i] = entries[i].key;
-            methods1[i] = entries[i].method;
-        }
-        return t -> new Proxy<>(t, keys, methods1);
+        return method.invoke(t, args);
     }
 
-    public static final class Entry {
-        final String key;
-        final Method method;
-
-        public Entry(final String key, final Method method) {
-            this.method = method;
-            method.setAccessible(true);
-            this.key = key;
+    /**
+     * @param clazz class to spy on
+     * @param keys method name + descriptor of each method, indexed by id
+     * @param <T> class to spy on
+     * @return a factory for proxies to instances of clazz
+     */
+    public static <T> Function<T, Proxy<T>> build(final Class<T> clazz, final String[] keys) {
+        final Map<String, Method> declared = new HashMap<>();
+        for (final Method method: clazz.getDeclaredMethods()) {
+            declared.put(method.getName() + Type.getMethodDescriptor(method), method);
         }
-
-        public String getKey() {
-            return key;
+        final Method[] methods = new Method[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            final Method method = declared.get(keys[i]);
+            if (method != null) {
+                method.setAccessible(true);
+                methods[i] = method;
+            }
         }
+        return t -> new Proxy<>(t, keys, methods);
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import com.mikeleith.mockery.Defaults;
+import com.mikeleith.mockery.MethodFilter;
+import com.mikeleith.mockery.Mockery;
+import org.objectweb.asm.Type;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mocks an interface with a java.lang.reflect.Proxy instead of a generated class. They're slower to call, but don't
+ * need any bytecode generating, so they're used while the generated class isn't ready yet (see Mockery.setTiered).
+ *
+ * Calls go through the same Visitor as generated mocks, with every argument boxed. The only difference is that checked
+ * exceptions a method doesn't declare are wrapped in an UndeclaredThrowableException. Like generated mocks, equals,
+ * hashCode and toString are based on identity (see MethodFilter.DEFAULT).
+ */
+public final class ProxyMock implements InvocationHandler {
+    private static final ClassValue<Template> TEMPLATES = new ClassValue<Template>() {
+        @Override
+        protected Template computeValue(final Class<?> type) {
+            return new Template(type);
+        }
+    };
+
+    private final Map<Method, Integer> ids;
+    private volatile Visitor<?> visitor;
+
+    private ProxyMock(final Map<Method, Integer> ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * @param clazz interface to mock
+     * @param defaults default values for the mock to return
+     * @param trackHistory whether to track history
+     * @param <T> type of the interface
+     * @return a new mock implementing clazz and Trackable, or null if we can't proxy clazz
+     */
+    public static <T> T create(final Class<T> clazz, final Defaults defaults, final boolean trackHistory) {
+        final Template template = TEMPLATES.get(clazz);
+        final ProxyMock handler = new ProxyMock(template.ids);
+        handler.visitor = new Visitor<>(null, defaults, trackHistory, template.keys);
+        try {
+            return clazz.cast(java.lang.reflect.Proxy.newProxyInstance(clazz.getClassLoader(),
+                    new Class<?>[]{clazz, Mockery.Trackable.class}, handler));
+        } catch (IllegalArgumentException e) {
+            // e.g Trackable isn't visible from clazz's loader
+            return null;
+        }
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Mockery.Trackable.class) {
+            if ("getVisitor".equals(method.getName())) {
+                return visitor;
+            }
+            visitor = (Visitor<?>) args[0];
+            return null;
+        } else if (method.getDeclaringClass() == Object.class) {
+            // proxies only dispatch equals, hashCode and toString from Object
+            // not recorded, so when() fails rather than stubbing the last call (see Visitor.clearLast)
+            Visitor.clearLast();
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return proxy.getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(proxy));
+            }
+        }
+        return visitor.run(ids.get(method), method.getReturnType(), args == null ? Visitor.EMPTY : args);
+    }
+
+    /**
+     * Everything needed to create proxies of an interface
+     */
+    private static final class Template {
+        // id of each method the proxy can call, methods with the same name + descriptor share an id
+        final Map<Method, Integer> ids = new HashMap<>();
+        // method name + descriptor of each method, indexed by id
+        final String[] keys;
+
+        Template(final Class<?> type) {
+            final Map<String, Integer> byKey = new HashMap<>();
+            final List<String> keys = new ArrayList<>();
+            final List<Method> methods = new ArrayList<>();
+            for (final Method method : type.getMethods()) {
+                // Object's methods are handled by the proxy itself, even if type redeclares them
+                if (!Modifier.isStatic(method.getModifiers()) && !MethodFilter.OBJECT_METHODS.test(method)) {
+                    methods.add(method);
+                }
+            }
+            for (final Method method : methods) {
+                final String key = method.getName() + Type.getMethodDescriptor(method);
+                Integer id = byKey.get(key);
+                if (id == null) {
+                    id = keys.size();
+                    byKey.put(key, id);
+                    keys.add(key);
+                }
+                ids.put(method, id);
+            }
+            this.keys = keys.toArray(new String[0]);
+        }
+    }
+}
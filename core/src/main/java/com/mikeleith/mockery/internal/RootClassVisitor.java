@@ -16,9 +16,9 @@
 
 package com.mikeleith.mockery.internal;
 
-import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.io.IOException;
 import java.util.HashSet;
 
 public class RootClassVisitor extends MethodCollector {
@@ -26,13 +26,21 @@ public class RootClassVisitor extends MethodCollector {
     private int version;
     private String name;
 
-    public RootClassVisitor() {
-        super(Opcodes.ACC_FINAL, true, new HashSet<>(), new HashSet<>());
+    private RootClassVisitor(final ClassLoader loader) {
+        super(Opcodes.ACC_FINAL, true, new HashSet<>(), new HashSet<>(), loader);
     }
 
-    @Override
-    public ClassVisitor getChildVisitor() {
-        return new MethodCollector(Opcodes.ACC_FINAL, false, constructors, methods);
+    /**
+     * Collects the methods and constructors of clazz. It's read through its own loader, as it may not be visible
+     * to the system loader (e.g in build tools)
+     * @param clazz class to visit
+     * @return the visitor
+     * @throws IOException if we fail to read clazz or its ancestors
+     */
+    public static RootClassVisitor of(final Class<?> clazz) throws IOException {
+        final RootClassVisitor visitor = new RootClassVisitor(clazz.getClassLoader());
+        read(clazz, visitor);
+        return visitor;
     }
 
     @Override
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The callbacks registered for one method of a mock. When several match a call the newest is used.
+ *
+ * Callbacks matching exact values (i.e their matchers are all Visitor.ExactPredicate, like the ones created when
+ * stubbing without matchers) are kept in a hash table keyed by those values, so they're found in O(1) however many
+ * there are. Stubbing the same values again replaces the previous callback. This only applies to values whose hash
+ * can be trusted (see hashable), anything else could override equals but not hashCode, or change after it's stubbed.
+ * Other callbacks are tested in order, newest first.
+ *
+ * Only the visitor adds callbacks (while holding its lock), but calls read them without locking. Each callback is
+ * published by a single write, so a call sees a callback either before or after it's added. The predicate list is
+ * copied on write, but the exact table is updated in place (it's only copied when it grows), so a call may see some
+ * of the callbacks added while it's running and not others, rather than a snapshot.
+ */
+final class Stubs {
+    private static final Visitor.Callback[] NONE = new Visitor.Callback[0];
+    // exact callbacks by the hash of their values, using linear probing. null until one is added
+    private volatile AtomicReferenceArray<Visitor.Callback> exact;
+    private int size = 0;
+    // other callbacks, newest first
+    private volatile Visitor.Callback[] predicates = NONE;
+
+    /**
+     * Adds callback, replacing any exact callback with the same values. Must only be called by one thread at a time
+     * @param callback callback to add, its order must be greater than every callback already added
+     */
+    void add(final Visitor.Callback callback) {
+        if (callback.values == null) {
+            final Visitor.Callback[] predicates = new Visitor.Callback[this.predicates.length + 1];
+            predicates[0] = callback;
+            System.arraycopy(this.predicates, 0, predicates, 1, this.predicates.length);
+            this.predicates = predicates;
+            return;
+        }
+        AtomicReferenceArray<Visitor.Callback> exact = this.exact;
+        if (exact == null || (size + 1) * 2 > exact.length()) {
+            exact = new AtomicReferenceArray<>(exact == null ? 8 : exact.length() * 2);
+            final AtomicReferenceArray<Visitor.Callback> prev = this.exact;
+            for (int i = 0; prev != null && i < prev.length(); i++) {
+                if (prev.get(i) != null) {
+                    put(exact, prev.get(i));
+                }
+            }
+            // fully populated before it's published
+            this.exact = exact;
+        }
+        if (put(exact, callback)) {
+            size++;
+        }
+    }
+
+    /**
+     * @param exact table to add to
+     * @param callback exact callback to add
+     * @return true if callback was added, false if it replaced one with the same values
+     */
+    private static boolean put(final AtomicReferenceArray<Visitor.Callback> exact, final Visitor.Callback callback) {
+        final int mask = exact.length() - 1;
+        for (int i = callback.hash & mask; ; i = (i + 1) & mask) {
+            final Visitor.Callback existing = exact.get(i);
+            if (existing == null) {
+                exact.set(i, callback);
+                return true;
+            } else if (existing.hash == callback.hash && callback.matches(existing.values)) {
+                exact.set(i, callback);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @param args arguments of the call
+     * @return the newest callback matching args, or null
+     */
+    Visitor.Callback find(final Object[] args) {
+        Visitor.Callback found = null;
+        final AtomicReferenceArray<Visitor.Callback> exact = this.exact;
+        // exact callbacks only match hashable values, so there's no need to look if any arg isn't
+        if (exact != null && hashable(args)) {
+            final int hash = hash(args);
+            final int mask = exact.length() - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                final Visitor.Callback callback = exact.get(i);
+                if (callback == null) {
+                    break;
+                } else if (callback.hash == hash && callback.matches(args)) {
+                    found = callback;
+                    break;
+                }
+            }
+        }
+        for (final Visitor.Callback callback : predicates) {
+            if (found != null && callback.order < found.order) {
+                break;
+            } else if (callback.matches(args)) {
+                return callback;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Variant of find for arguments passed as raw bits (see Primitives), which never boxes them unless a predicate
+     * callback needs them as Objects
+     * @param sorts packed sorts of the arguments
+     * @param a0 raw bits of the first argument
+     * @param a1 raw bits of the second argument, ignored if there's only one
+     * @return the newest callback matching the arguments, or null
+     */
+    Visitor.Callback find(final int sorts, final long a0, final long a1) {
+        Visitor.Callback found = null;
+        final AtomicReferenceArray<Visitor.Callback> exact = this.exact;
+        if (exact != null) {
+            int hash = 31 + hash(Primitives.sort(sorts, 0), a0);
+            if (Primitives.length(sorts) > 1) {
+                hash = 31 * hash + hash(Primitives.sort(sorts, 1), a1);
+            }
+            final int mask = exact.length() - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                final Visitor.Callback callback = exact.get(i);
+                if (callback == null) {
+                    break;
+                } else if (callback.hash == hash && callback.matches(sorts, a0, a1)) {
+                    found = callback;
+                    break;
+                }
+            }
+        }
+        for (final Visitor.Callback callback : predicates) {
+            if (found != null && callback.order < found.order) {
+                break;
+            } else if (callback.matches(sorts, a0, a1)) {
+                return callback;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return every callback, newest first
+     */
+    List<Visitor.Callback> callbacks() {
+        final List<Visitor.Callback> callbacks = new ArrayList<>(Arrays.asList(predicates));
+        final AtomicReferenceArray<Visitor.Callback> exact = this.exact;
+        for (int i = 0; exact != null && i < exact.length(); i++) {
+            if (exact.get(i) != null) {
+                callbacks.add(exact.get(i));
+            }
+        }
+        callbacks.sort((a, b) -> Long.compare(b.order, a.order));
+        return callbacks;
+    }
+
+    /**
+     * @param values arguments or values
+     * @return whether every value has a hash we can rely on, i.e it's null, a boxed primitive, String, enum or Class
+     */
+    static boolean hashable(final Object[] values) {
+        for (final Object value : values) {
+            if (value != null && !(value instanceof String) && !(value instanceof Enum) && !(value instanceof Class)
+                    && Primitives.sortOf(value) == Type.OBJECT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hashes a call's arguments the same way as the values of an exact callback, so they can be looked up.
+     * Boxed primitives hash the same as their raw bits (see hash(int, long))
+     * @param args arguments or values, which must be hashable
+     * @return hash of args
+     */
+    static int hash(final Object[] args) {
+        int hash = 1;
+        for (final Object arg : args) {
+            hash = 31 * hash + hash(arg);
+        }
+        return hash;
+    }
+
+    private static int hash(final Object o) {
+        if (o == null) {
+            return 0;
+        }
+        final int sort = Primitives.sortOf(o);
+        return sort == Type.OBJECT ? o.hashCode() : hash(sort, Primitives.bits(o));
+    }
+
+    private static int hash(final int sort, final long bits) {
+        return Long.hashCode(Primitives.canonical(sort, bits));
+    }
+}
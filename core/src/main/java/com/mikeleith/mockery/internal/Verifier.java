@@ -32,29 +32,29 @@ public class Verifier {
     }
 
     /**
-     * Checks that the given key and matchers (or args) were seen by the tracker the specified number of times
+     * Checks that the given method and matchers (or args) were seen by the tracker the specified number of times
      * @param visitor visitor to get data from
-     * @param key method name + description to test
+     * @param id id of the method to test
      * @param matchers optional matchers to check, if empty args are used instead
      * @param history history to use if any matchers are given
      * @param args raw arguments to check for
      */
     public void verify(final Visitor<?> visitor,
-                       final String key,
+                       final int id,
                        final Predicate<Object>[] matchers,
                        final List<Object[]> history,
                        final Object... args) {
         int calls;
         if (matchers == null) {
-            calls = visitor.get(key, args);
+            calls = visitor.get(id, args);
         } else if (matchers.length != args.length) {
             throw new RuntimeException("Not all arguments mocked, you must use eq for literals with Matchers");
         } else {
             calls = 0;
             /*
-             * finds the number of times the key was called with arguments that match their respective predicate,
+             * finds the number of times the method was called with arguments that match their respective predicate,
              * e.g args.get(0) is tested against arg 0, .get(1) against 1 and so forth.
-             * @param key method name + description
+             * @param id method id
              * @param args list of per-argument predicates to match
              * @return the number of matches
              */
@@ -66,7 +66,8 @@ public class Verifier {
 
         }
         if (!numCalls.test(calls)) {
-            throw new RuntimeException("expected " + numCalls.toString() + ", but was called " + calls + " times");
+            throw new RuntimeException("expected " + numCalls.toString() + ", but " + visitor.getKey(id)
+                    + " was called " + calls + " times");
         }
     }
 
@@ -20,46 +20,116 @@ import com.mikeleith.mockery.Matchers;
 import com.mikeleith.mockery.Mock;
 import com.mikeleith.mockery.Defaults;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Predicate;
 
 /**
- * Class stored within a mock/spy that handles delegating method calls
+ * Class stored within a mock/spy that handles delegating method calls.
+ *
+ * Every method of a generated class is given a dense int id, which indexes that methods history and callbacks.
+ * The method name + descriptor for each id ("keys") are only kept for diagnostics.
+ *
+ * Calls don't lock: they read the callbacks from tables that are only ever added to by single writes (see Stubs),
+ * and append to a lock-free history (see History and LastCall). Stubbing and resetting a mock while other threads
+ * are calling it is safe, each call sees the callbacks either before or after the change and never a mix of the two.
  * @param <T> class we're mocking/spying on
  */
 public class Visitor<T> {
-    private static final Object[] EMPTY = new Object[]{};
-    private static final TriPredicate<String, Object[], List<Object[]>> DEFAULT_VERIFIER = (k, a, l) -> true;
-    // global state to support verify/when syntax.
-    // as these methods don't directly receive the mock object we need some global state to record who was last touched
-    // e.g when(foo.something(bar).doReturn(...)); will be tracking foo because it was last called
-    private static Visitor<?> lastCall = null;
+    static final Object[] EMPTY = new Object[]{};
+    // per-thread state to support verify/when syntax.
+    // as these methods don't directly receive the mock object we need some state to record who was last touched
+    // e.g when(foo.something(bar).doReturn(...)); will be tracking foo because it was last called.
+    // This is kept per thread so tests running in parallel don't see each others calls
+    private static final ThreadLocal<Last> LAST = ThreadLocal.withInitial(Last::new);
     private final Proxy<T> impl;
     private final Defaults defaults;
-    private final Map<String, List<Object[]>> trackers;
+    private final String[] keys;
+    private final List<Object[]>[] trackers;
     private final boolean trackHistory;
-    // @note: mutation is not thread safe, we assume all your setup is run before using the mock
-    private List<Callback> callbacks;
-    private TriPredicate<String, Object[], List<Object[]>> verifier;
-    private Map<String, CallHistory> callHistories;
-    private String lastKey;
-    private Object[] lastArgs;
-
-    public Visitor(final Proxy<T> impl, final Defaults defaults, final boolean trackHistory) {
+    // callbacks of each method, null until one is registered. copied on write, so calls can read it without locking
+    private volatile Stubs[] stubs;
+    // order of the next callback registered, so the newest callback matching a call can be found
+    private long order = 0;
+    private final CallHistory[] callHistories;
+    // deep stubs returned by each method, created on first use (see Defaults.Deep). null unless using deep stubs
+    // replaced on reset rather than cleared, so a racing call can't put an old child in the new array
+    private volatile AtomicReferenceArray<Object> children;
+    // number of threads with a pending verifier for this visitor, so calls only look for one when there might be one
+    private volatile int verifying;
+    // true while calls don't need to do anything but return the default, see passive
+    private volatile boolean passive;
+
+    @SuppressWarnings("unchecked")
+    public Visitor(final Proxy<T> impl, final Defaults defaults, final boolean trackHistory, final String[] keys) {
         this.trackHistory = trackHistory;
-        this.callbacks = null;
         this.impl = impl;
         this.defaults = Objects.requireNonNull(defaults);
-        this.verifier = DEFAULT_VERIFIER;
-        this.trackers = new HashMap<>();
-        callHistories = null;
-        lastKey = null;
-        lastArgs = null;
+        this.keys = Objects.requireNonNull(keys);
+        this.verifying = 0;
+        this.stubs = new Stubs[keys.length];
+        this.callHistories = new CallHistory[keys.length];
+        this.children = defaults instanceof Defaults.Deep ? new AtomicReferenceArray<>(keys.length) : null;
+        this.trackers = new List[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            trackers[i] = trackHistory ? new History() : new LastCall();
+        }
+        updatePassive();
+    }
+
+    /**
+     * Fast path for methods without args, called by generated mocks before run. When the mock is passive, i.e
+     * it has no stubs, pending verification, history or spied object, and uses the standard defaults, this just
+     * records the call (so it can still be stubbed with when) and the mock returns the default itself.
+     * Methods taking any non-primitive args, or more than two args, don't have a fast path and always call run.
+     *
+     * The call is only recorded as this thread's last call, so concurrent callers don't all write to the method's
+     * LastCall. It's written there once this thread calls something else, or starts verifying (see Last.flush).
+     * Until then another thread verifying the method doesn't see it.
+     * @param id id of the method being called
+     * @return true if the mock is passive, in which case it returns the default without calling run
+     */
+    public boolean passive(final int id) {
+        if (!passive) {
+            return false;
+        }
+        LAST.get().calledPassive(this, id, EMPTY);
+        return true;
+    }
+
+    /**
+     * Fast path for methods taking up to two primitive args, called by generated mocks before runJ/runJJ.
+     * See passive(int)
+     * @param id id of the method being called
+     * @param sorts packed sorts of the arguments (see Primitives)
+     * @param a0 raw bits of the first argument
+     * @param a1 raw bits of the second argument, ignored if there's only one
+     * @return true if the mock is passive, in which case it returns the default without calling runJJ
+     */
+    public boolean passive(final int id, final int sorts, final long a0, final long a1) {
+        if (!passive) {
+            return false;
+        }
+        LAST.get().calledPassive(this, id, sorts, a0, a1);
+        return true;
+    }
+
+    /**
+     * Recalculates whether we're passive (see passive), should be called whenever our state changes
+     */
+    private void updatePassive() {
+        final Stubs[] stubs = this.stubs;
+        boolean passive = !trackHistory && impl == null && verifying == 0 && defaults == Defaults.Impl.IMPL;
+        for (int i = 0; passive && i < stubs.length; i++) {
+            passive = stubs[i] == null;
+        }
+        this.passive = passive;
     }
 
     /**
@@ -68,187 +138,338 @@ public class Visitor<T> {
      * 2. Notifies the tracker
      * 3. returns any callbacks (thenReturn/thenAnswer) that match this method/arg combination
      * 4. returns the default return value for this methods return type
-     * @param target list to add data to - this should be a class member
-     * @param key method name + description being called
+     * @param id id of the method being called
      * @param clazz return type the method expects
      * @param args arguments passed to the method
      * @return an instance of the expected return type, either taken from registered callbacks or the default fallback
      * @throws Throwable throws if either the callback or fallbacks throw
      */
-    public Object run(final List<Object[]> target,
-                      final String key,
+    public Object run(final int id,
                       final Class<?> clazz,
                       final Object... args) throws Throwable {
+        final List<Object[]> target = trackers[id];
         // returns true if we've visited the tracker
-        if (!verifier.test(key, args, target)) {
+        if (verifying != 0 && verify(id, target, args)) {
             // note that this does not use the impl, since we don't want to risk modifying what we're spying on
-            return defaults.get(clazz);
+            return getDefault(id, clazz);
         }
-        lastCall = this;
-        synchronized (this) {
-            lastKey = key;
-            lastArgs = args;
-            // only add if we're tracking
-            if (trackHistory || target.isEmpty()) {
-                target.add(args);
-            } else {
-                target.set(0, args);
-            }
-            if (callbacks != null) {
-                for (Callback callback : callbacks) {
-                    if (callback.matches(key, args)) {
-                        return callback.fn.apply(args);
-                    }
-                }
+        // when we aren't tracking history only the last call is kept
+        if (trackHistory) {
+            target.add(args);
+        } else {
+            ((LastCall) target).set(args);
+        }
+        try {
+            final Stubs stubs = this.stubs[id];
+            final Callback callback = stubs == null ? null : stubs.find(args);
+            if (callback != null) {
+                return callback.fn.apply(args);
             }
+            return getFallback(id, clazz, args);
+        } finally {
+            // recorded once we're done, so calls made while answering (e.g a matcher calling an arg's equals, or a
+            // spied method calling other mocks) don't replace this one as the call when() stubs
+            LAST.get().called(this, id, args);
         }
-        return getFallback(key, clazz, args);
     }
 
     /**
      * Special case of run for methods with no args
-     * @param target list to add data to - this should be a class member
-     * @param key method name + description being called
+     * @param id id of the method being called
+     * @param clazz return type the method expects
+     * @return an instance of the expected return type, either taken from registered callbacks or the default fallback
+     * @throws Throwable throws if either the callback or fallbacks throw
+     */
+    public Object run(final int id, final Class<?> clazz) throws Throwable {
+        return run(id, clazz, EMPTY);
+    }
+
+    /**
+     * Special case of run for methods taking one primitive argument. See runJJ
+     * @param id id of the method being called
+     * @param clazz return type the method expects
+     * @param sorts packed sorts of the arguments (see Primitives)
+     * @param a0 raw bits of the argument
+     * @return an instance of the expected return type, either taken from registered callbacks or the default fallback
+     * @throws Throwable throws if either the callback or fallbacks throw
+     */
+    public Object runJ(final int id, final Class<?> clazz, final int sorts, final long a0) throws Throwable {
+        return runJJ(id, clazz, sorts, a0, 0L);
+    }
+
+    /**
+     * Special case of run for methods taking up to two primitive arguments, passed as their raw bits
+     * (see Primitives). When we're not tracking history, spying or verifying the arguments are never boxed unless
+     * a callback asks for them, so a stubbed call doesn't allocate. Otherwise this falls back to run.
+     * @param id id of the method being called
      * @param clazz return type the method expects
+     * @param sorts packed sorts of the arguments (see Primitives)
+     * @param a0 raw bits of the first argument
+     * @param a1 raw bits of the second argument, ignored if there's only one
      * @return an instance of the expected return type, either taken from registered callbacks or the default fallback
      * @throws Throwable throws if either the callback or fallbacks throw
      */
-    public Object run(final List<Object[]> target,
-                      final String key,
-                      final Class<?> clazz) throws Throwable {
-        return run(target, key, clazz, EMPTY);
+    public Object runJJ(final int id,
+                        final Class<?> clazz,
+                        final int sorts,
+                        final long a0,
+                        final long a1) throws Throwable {
+        if (trackHistory || impl != null || verifying != 0) {
+            return run(id, clazz, Primitives.box(sorts, a0, a1));
+        }
+        ((LastCall) trackers[id]).set(sorts, a0, a1);
+        try {
+            final Stubs stubs = this.stubs[id];
+            final Callback callback = stubs == null ? null : stubs.find(sorts, a0, a1);
+            if (callback != null) {
+                return callback.fn.apply(sorts, a0, a1);
+            }
+            return getDefault(id, clazz);
+        } finally {
+            // see run
+            LAST.get().called(this, id, sorts, a0, a1);
+        }
+    }
+
+    /**
+     * @param id method id
+     * @return the history of calls to the method. When we aren't tracking history this only holds the last call
+     */
+    public List<Object[]> history(final int id) {
+        return trackers[id];
+    }
+
+    /**
+     * @param id method id
+     * @return method name + descriptor of the method, for diagnostics
+     */
+    public String getKey(final int id) {
+        return keys[id];
+    }
+
+    /**
+     * @return the number of methods, ids range from 0 to size - 1
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @return what we're spying on, or null if this is a mock
+     */
+    Proxy<T> getImpl() {
+        return impl;
     }
 
-    public List<Object[]> init(final String key) {
-        // @todo: compare map vs sorted list
-        final List<Object[]> history = new ArrayList<>();
-        trackers.put(key, history);
-        return history;
+    /**
+     * @param id method id
+     * @return the callbacks registered for the method, or null if there aren't any
+     */
+    Stubs getStubs(final int id) {
+        return stubs[id];
     }
 
     /**
      * @todo: improve this method
      * Attempts to call the "real" objects relevant method if this is a spy, otherwise falling back to the Defaults
+     * @param id id of the method being called
      * @param clazz expected return type
-     * @param key method name + description being called
      * @param args arguments passed to the method
      * @return either the spied methods result or the default for this class
      * @throws Throwable throws if the spied method throws, or if there is no equivalent method in the spied object
      */
-    private Object getFallback(final String key, final Class<?> clazz, final Object... args) throws Throwable {
-        return impl != null ? impl.match(key, args) : defaults.get(clazz);
+    private Object getFallback(final int id, final Class<?> clazz, final Object... args) throws Throwable {
+        return impl != null ? impl.match(id, args) : getDefault(id, clazz);
     }
 
     /**
-     * Appends the given combination of parameters to the callbacks we will attempt to use when methods are called.
-     * Note that this replaces previous callbacks for this key. We do not append because it makes removing previous
-     * callbacks non-trivial (as the api doesn't currently return index info).
+     * @param id id of the method being called
+     * @param clazz expected return type
+     * @return the default for clazz. Deep stubs are only created once per method, and reused for later calls
+     */
+    Object getDefault(final int id, final Class<?> clazz) {
+        final AtomicReferenceArray<Object> children = this.children;
+        if (children == null) {
+            return defaults.get(clazz);
+        }
+        Object child = children.get(id);
+        if (child == null) {
+            // racing calls may both create a child, but only the first is kept
+            children.compareAndSet(id, null, defaults.get(clazz));
+            child = children.get(id);
+        }
+        return child;
+    }
+
+    /**
+     * Adds a callback we will attempt to use when the given method is called.
+     * A method can have any number of callbacks, calls use the newest one that matches. Callbacks whose conditions
+     * are all ExactPredicates of hashable values (see Stubs) replace any previous callback for the same values,
+     * others are kept until reset
      * @param fn callback to register
-     * @param key method name + description we're targetting
+     * @param id id of the method we're targetting
      * @param args list of conditions for using this predicate
      */
     @SuppressWarnings("unchecked")
-    public synchronized void registerCallback(final Fn fn, final String key, final Predicate<Object>... args) {
-        if (callbacks == null) {
-            callbacks = new ArrayList<>(4);
-        } else {
-            for (int i = 0; i < callbacks.size(); i++) {
-                if (callbacks.get(i).key.equals(key)) {
-                    callbacks.set(i, new Callback(key, args, fn));
-                    return;
-                }
-            }
+    public synchronized void registerCallback(final Fn fn, final int id, final Predicate<Object>... args) {
+        // before the callback is visible, so calls that see it don't take the passive path
+        passive = false;
+        Stubs[] stubs = this.stubs;
+        if (stubs[id] == null) {
+            stubs = stubs.clone();
+            stubs[id] = new Stubs();
+            this.stubs = stubs;
         }
-        callbacks.add(new Callback(key, args, fn));
+        stubs[id].add(new Callback(args, fn, order++));
     }
 
     /**
      * Resets the current tracker and clears all callbacks
      * Also resets the trackers call history. This should be used as often as possible
-     * as recorded history is unbounded and grows linearly with mock method calls
+     * as recorded history is unbounded and grows linearly with mock method calls.
+     * The callbacks are all dropped by a single write, so racing calls see either all of them or none
      */
-    public void reset() {
-        for (final List<Object[]> descriptions: trackers.values()) {
-            descriptions.clear();
+    public synchronized void reset() {
+        // this thread's last call may not have been recorded yet, it shouldn't be once we're reset
+        final Last last = LAST.get();
+        if (last.visitor == this) {
+            last.pending = false;
         }
-        if (callHistories != null) {
-            callHistories.clear();
+        for (final List<Object[]> descriptions: trackers) {
+            descriptions.clear();
         }
-        if (callbacks != null) {
-            callbacks.clear();
+        Arrays.fill(callHistories, null);
+        stubs = new Stubs[keys.length];
+        if (children != null) {
+            children = new AtomicReferenceArray<>(keys.length);
         }
+        updatePassive();
     }
 
     /**
-     * Resets the last called visitor. Used primarily for unit tests (see Mockery.reset())
+     * Resets the visitor last called by this thread, and drops its pending verifier.
+     * Used primarily for unit tests (see Mockery.reset())
      */
     public static void resetLast() {
-        synchronized (DEFAULT_VERIFIER) {
-            if (lastCall != null) {
-                lastCall.reset();
-                lastCall = null;
-            }
+        final Last last = LAST.get();
+        last.cancelVerification();
+        if (last.visitor != null) {
+            last.visitor.reset();
+            last.visitor = null;
+            last.args = null;
         }
     }
 
     /**
-     * Rollbacks the last called visitors entry, and returns a Mock capturing it
+     * Forgets the last call made by this thread, so that when() fails rather than stubbing it. Called by methods that
+     * can't be stubbed (e.g those of frozen mocks, or identity based equals), in case they're passed to when()
+     */
+    public static void clearLast() {
+        final Last last = LAST.get();
+        last.flush();
+        last.visitor = null;
+        last.args = null;
+    }
+
+    /**
+     * Rollbacks the entry of the visitor last called by this thread, and returns a Mock capturing it
      * @param <T> return type of the last entries output
      * @return A mock describing the last method call seen
      */
     public static <T> Mock<T> rollbackLast() {
-        synchronized (DEFAULT_VERIFIER) {
-            final List<Object[]> last = lastCall.trackers.get(lastCall.lastKey);
-            last.remove(last.size() - 1);
-            return new Mock<>(lastCall, lastCall.lastKey, lastCall.lastArgs);
+        final Last last = LAST.get();
+        if (last.visitor == null) {
+            // drop any matchers used in the call, so they aren't applied to the next one
+            Matchers.getMatchers();
+            throw new NullPointerException("when() must be passed a call to a mocked method, e.g when(mock.get()). "
+                    + "Frozen mocks and final, static or private methods can't be stubbed, and equals, hashCode and "
+                    + "toString can only be stubbed on mocks created with MethodFilter.ALL");
+        }
+        if (last.pending) {
+            // it was never recorded, so there's nothing to forget
+            last.pending = false;
+        } else {
+            last.visitor.forget(last.id, last.args);
+        }
+        return new Mock<>(last.visitor, last.id, last.args());
+    }
+
+    /**
+     * Removes a call from the history of a method, unless another call has been recorded since
+     * @param id method id
+     * @param args args recorded for the call, or null if it was recorded as raw bits (see LastCall)
+     */
+    private void forget(final int id, final Object[] args) {
+        final List<Object[]> calls = trackers[id];
+        if (calls instanceof History) {
+            final int size = calls.size();
+            if (size > 0) {
+                ((History) calls).removeLast(size - 1, args);
+            }
+        } else {
+            ((LastCall) calls).forget();
         }
     }
 
     /**
-     * Sets the verifier to use for the next method call
+     * Sets the verifier to use for the next method call by this thread. Only the next call is verified, so this
+     * replaces any verifier this thread set that hasn't been used yet
      * @param verifier verifier to uset
      */
     public void setVerification(final Verifier verifier) {
-        synchronized (this) {
-            this.verifier = (k, a, l) -> {
-                synchronized (this) {
-                    this.verifier = DEFAULT_VERIFIER;
-                    verifier.verify(this, k, Matchers.getMatchers(), l, a);
-                }
-                return false;
-            };
+        final Last last = LAST.get();
+        // so this thread's passive calls are counted
+        last.flush();
+        last.cancelVerification();
+        last.verifier = verifier;
+        last.verifying = this;
+        updateVerifying(1);
+    }
+
+    /**
+     * Runs and clears this thread's pending verifier, if it's for this visitor
+     * @return true if we verified this call
+     */
+    private boolean verify(final int id, final List<Object[]> target, final Object[] args) {
+        final Last last = LAST.get();
+        if (last.verifying != this) {
+            return false;
         }
+        final Verifier verifier = last.verifier;
+        last.cancelVerification();
+        verifier.verify(this, id, Matchers.getMatchers(), target, args);
+        return true;
+    }
+
+    private synchronized void updateVerifying(final int delta) {
+        verifying += delta;
+        updatePassive();
     }
 
     /**
-     * Returns the number of times the key + args combination was called
-     * @param key method name + description
+     * Returns the number of times the method + args combination was called
+     * @param id method id
      * @param args arguments used
      * @return number of calls to this combination
      */
-    public synchronized int get(final String key, final Object... args) {
-        return collect(key).perArgset.getOrDefault(Arrays.asList(args), 0);
+    public synchronized int get(final int id, final Object... args) {
+        return collect(id).perArgset.getOrDefault(Arrays.asList(args), 0);
     }
 
     /**
-     * Converts the call history into a {@literal Map<MethodName+Description, CallHistory>} to make lookup easier
+     * Converts the call history into a {@literal Map<Args, Count>} to make lookup easier
      * at the expense of absolute ordering
-     * @param key method to collect a history for
+     * @param id method to collect a history for
      * @return reformatted call history
      */
-    public synchronized CallHistory collect(final String key) {
-        CallHistory callHistory = null;
-        if (callHistories == null) {
-            callHistories = new HashMap<>();
-        } else {
-            callHistory = callHistories.get(key);
-        }
+    public synchronized CallHistory collect(final int id) {
+        CallHistory callHistory = callHistories[id];
         if (callHistory == null) {
             callHistory = new CallHistory();
-            callHistories.put(key, callHistory);
+            callHistories[id] = callHistory;
         }
-        final List<Object[]> history = trackers.get(key);
-        if (history != null && callHistory.size != history.size()) {
+        final List<Object[]> history = trackers[id];
+        if (callHistory.size != history.size()) {
             for (int i = callHistory.size; i < history.size(); i++) {
                 callHistory.update(history.get(i));
             }
@@ -256,19 +477,37 @@ public class Visitor<T> {
         return callHistory;
     }
 
-    private static final class Callback {
-        private final String key;
-        private final Predicate<Object>[] args;
-        private final Fn fn;
+    static final class Callback {
+        final Predicate<Object>[] args;
+        final Fn fn;
+        // when this was registered, newer callbacks take precedence
+        final long order;
+        // if every condition is an ExactPredicate of a hashable value, the values they match and their hash
+        // (see Stubs). Otherwise null
+        final Object[] values;
+        final int hash;
 
-        public Callback(final String key, final Predicate<Object>[] args, final Fn fn) {
-            this.key = key;
+        public Callback(final Predicate<Object>[] args, final Fn fn, final long order) {
             this.args = args;
             this.fn = fn;
+            this.order = order;
+            this.values = values(args);
+            this.hash = values == null ? 0 : Stubs.hash(values);
+        }
+
+        private static Object[] values(final Predicate<Object>[] args) {
+            final Object[] values = new Object[args.length];
+            for (int i = 0; i < args.length; i++) {
+                if (!(args[i] instanceof ExactPredicate)) {
+                    return null;
+                }
+                values[i] = ((ExactPredicate) args[i]).value();
+            }
+            return Stubs.hashable(values) ? values : null;
         }
 
-        public boolean matches(final String name, final Object... args) {
-            if (this.args.length != args.length || !this.key.equals(name)) {
+        public boolean matches(final Object... args) {
+            if (this.args.length != args.length) {
                 return false;
             }
             for (int i = 0; i < args.length; i++) {
@@ -278,6 +517,364 @@ public class Visitor<T> {
             }
             return true;
         }
+
+        public boolean matches(final int sorts, final long a0, final long a1) {
+            if (this.args.length != Primitives.length(sorts)) {
+                return false;
+            }
+            return test(0, sorts, a0) && (args.length < 2 || test(1, sorts, a1));
+        }
+
+        private boolean test(final int i, final int sorts, final long bits) {
+            final int sort = Primitives.sort(sorts, i);
+            if (args[i] instanceof RawPredicate) {
+                return ((RawPredicate) args[i]).test(sort, bits);
+            }
+            return args[i].test(Primitives.box(sort, bits));
+        }
+    }
+
+    /**
+     * History used when we're tracking it. Calls are appended without locking, each claims the next index and then
+     * writes its args to it. Indexes are split into chunks that double in size, created the first time they're needed.
+     *
+     * Reading an index that's been claimed but not written yet waits for it to be written. Only the last call can be
+     * removed (see rollbackLast), and clear starts a new log so calls racing with it can't write into the new one.
+     */
+    static final class History extends AbstractList<Object[]> {
+        // the first chunk holds 1 << FIRST calls
+        private static final int FIRST = 4;
+        private volatile Log log = new Log();
+
+        @Override
+        public boolean add(final Object[] args) {
+            final Log log = this.log;
+            final int index = log.size.getAndIncrement();
+            log.chunk(index).set(offset(index), args);
+            return true;
+        }
+
+        @Override
+        public Object[] get(final int index) {
+            final Log log = this.log;
+            while (true) {
+                if (index < 0 || index >= log.size.get()) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + log.size.get());
+                }
+                final Object[] args = log.chunk(index).get(offset(index));
+                if (args != null) {
+                    return args;
+                }
+                // claimed by a call that hasn't written it yet
+                Thread.yield();
+            }
+        }
+
+        @Override
+        public Object[] remove(final int index) {
+            final Object[] prev = get(index);
+            if (!removeLast(index, prev)) {
+                throw new UnsupportedOperationException("only the last call can be removed");
+            }
+            return prev;
+        }
+
+        /**
+         * @param index index of the last call
+         * @param args args of the call
+         * @return true if the call was removed, false if it wasn't args or isn't the last call any more
+         */
+        boolean removeLast(final int index, final Object[] args) {
+            final Log log = this.log;
+            final AtomicReferenceArray<Object[]> chunk = log.chunk(index);
+            // cleared first so the next call to claim index can't be overwritten
+            if (log.size.get() != index + 1 || !chunk.compareAndSet(offset(index), args, null)) {
+                return false;
+            }
+            if (!log.size.compareAndSet(index + 1, index)) {
+                chunk.set(offset(index), args);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            log = new Log();
+        }
+
+        @Override
+        public int size() {
+            return log.size.get();
+        }
+
+        /**
+         * @param index index of a call
+         * @return the index of the call within its chunk
+         */
+        private static int offset(final int index) {
+            final int i = index + (1 << FIRST);
+            return i - Integer.highestOneBit(i);
+        }
+
+        private static final class Log {
+            // number of claimed indexes
+            private final AtomicInteger size = new AtomicInteger();
+            private final AtomicReferenceArray<AtomicReferenceArray<Object[]>> chunks =
+                    new AtomicReferenceArray<>(Integer.SIZE - FIRST);
+
+            /**
+             * @param index index of a call
+             * @return the chunk holding index, created if this is the first time it's been used
+             */
+            private AtomicReferenceArray<Object[]> chunk(final int index) {
+                final int i = index + (1 << FIRST);
+                final int k = Integer.numberOfLeadingZeros(1 << FIRST) - Integer.numberOfLeadingZeros(i);
+                AtomicReferenceArray<Object[]> chunk = chunks.get(k);
+                if (chunk == null) {
+                    chunks.compareAndSet(k, null, new AtomicReferenceArray<>(Integer.highestOneBit(i)));
+                    chunk = chunks.get(k);
+                }
+                return chunk;
+            }
+        }
+    }
+
+    /**
+     * History used when we aren't tracking it. This only holds the last call, and calls made through runJ/runJJ
+     * are kept as raw bits so their arguments are only boxed if something reads them back.
+     *
+     * This is a seqlock: version is odd while a call is being written, and readers retry if it changed while they
+     * read. Calls don't wait for each other, if another thread is writing a call at the same time we skip ours,
+     * since either of them could be the last.
+     */
+    static final class LastCall extends AbstractList<Object[]> {
+        private final AtomicInteger version = new AtomicInteger();
+        private Object[] args = null;
+        private boolean present = false;
+        private int sorts;
+        private long a0;
+        private long a1;
+
+        void set(final Object[] args) {
+            final int v = version.get();
+            if ((v & 1) == 0 && version.compareAndSet(v, v + 1)) {
+                this.args = args;
+                this.present = true;
+                version.set(v + 2);
+            }
+        }
+
+        void set(final int sorts, final long a0, final long a1) {
+            final int v = version.get();
+            if ((v & 1) == 0 && version.compareAndSet(v, v + 1)) {
+                this.args = null;
+                this.present = true;
+                this.sorts = sorts;
+                this.a0 = a0;
+                this.a1 = a1;
+                version.set(v + 2);
+            }
+        }
+
+        /**
+         * @return the last call, or null if there isn't one
+         */
+        private Object[] read() {
+            while (true) {
+                final int v = version.get();
+                if ((v & 1) == 0) {
+                    final Object[] args = this.args;
+                    final boolean present = this.present;
+                    final int sorts = this.sorts;
+                    final long a0 = this.a0;
+                    final long a1 = this.a1;
+                    // a cas rather than a get, so the reads above can't be moved after it
+                    if (version.compareAndSet(v, v)) {
+                        return !present ? null : args != null ? args : Primitives.box(sorts, a0, a1);
+                    }
+                }
+                Thread.yield();
+            }
+        }
+
+        /**
+         * Waits for any call being written, then starts writing. Used for writes that can't be skipped
+         * @return the version to pass to unlock
+         */
+        private int lock() {
+            while (true) {
+                final int v = version.get();
+                if ((v & 1) == 0 && version.compareAndSet(v, v + 1)) {
+                    return v;
+                }
+                Thread.yield();
+            }
+        }
+
+        private void unlock(final int v) {
+            version.set(v + 2);
+        }
+
+        @Override
+        public Object[] get(final int index) {
+            final Object[] args = read();
+            if (index != 0 || args == null) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (args == null ? 0 : 1));
+            }
+            return args;
+        }
+
+        @Override
+        public Object[] set(final int index, final Object[] element) {
+            final int v = lock();
+            try {
+                final Object[] prev = current(index);
+                args = element;
+                return prev;
+            } finally {
+                unlock(v);
+            }
+        }
+
+        @Override
+        public void add(final int index, final Object[] element) {
+            final int v = lock();
+            try {
+                if (index != 0 || present) {
+                    throw new IllegalStateException("only the last call is kept when history is disabled");
+                }
+                args = element;
+                present = true;
+            } finally {
+                unlock(v);
+            }
+        }
+
+        @Override
+        public Object[] remove(final int index) {
+            final int v = lock();
+            try {
+                final Object[] prev = current(index);
+                args = null;
+                present = false;
+                return prev;
+            } finally {
+                unlock(v);
+            }
+        }
+
+        @Override
+        public int size() {
+            return read() == null ? 0 : 1;
+        }
+
+        /**
+         * Removes the last call, if there is one
+         */
+        void forget() {
+            final int v = lock();
+            args = null;
+            present = false;
+            unlock(v);
+        }
+
+        /**
+         * @param index index of the call, must be 0
+         * @return the last call, must be called while locked
+         */
+        private Object[] current(final int index) {
+            if (index != 0 || !present) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (present ? 1 : 0));
+            }
+            return args != null ? args : Primitives.box(sorts, a0, a1);
+        }
+    }
+
+    /**
+     * What a thread last did with the when/verify syntax. Every call writes to this, so it's only ever written by its
+     * thread: calls to mocks in different threads don't share any state.
+     */
+    private static final class Last {
+        // visitor last called, the id of the method, and its args (or their raw bits if args is null)
+        private Visitor<?> visitor;
+        private int id;
+        private Object[] args;
+        private int sorts;
+        private long a0;
+        private long a1;
+        // verifier for the next call to the visitor verifying
+        private Verifier verifier;
+        private Visitor<?> verifying;
+        // true if the last call was passive and hasn't been written to its visitor's LastCall yet (see passive)
+        private boolean pending;
+
+        private void called(final Visitor<?> visitor, final int id, final Object[] args) {
+            replace(visitor, id);
+            this.args = args;
+        }
+
+        private void called(final Visitor<?> visitor, final int id, final int sorts, final long a0, final long a1) {
+            replace(visitor, id);
+            this.args = null;
+            this.sorts = sorts;
+            this.a0 = a0;
+            this.a1 = a1;
+        }
+
+        private void calledPassive(final Visitor<?> visitor, final int id, final Object[] args) {
+            called(visitor, id, args);
+            pending = true;
+        }
+
+        private void calledPassive(final Visitor<?> visitor,
+                                   final int id,
+                                   final int sorts,
+                                   final long a0,
+                                   final long a1) {
+            called(visitor, id, sorts, a0, a1);
+            pending = true;
+        }
+
+        /**
+         * Makes visitor/id the last call, recording the previous one if it's pending. A pending call to the same
+         * method doesn't need to be, the new call replaces it as the method's last call
+         */
+        private void replace(final Visitor<?> visitor, final int id) {
+            if (pending && (this.visitor != visitor || this.id != id)) {
+                flush();
+            }
+            pending = false;
+            this.visitor = visitor;
+            this.id = id;
+        }
+
+        /**
+         * Writes the last call to its visitor's LastCall, if it was passive and hasn't been yet
+         */
+        private void flush() {
+            if (pending) {
+                pending = false;
+                final LastCall target = (LastCall) visitor.trackers[id];
+                if (args != null) {
+                    target.set(args);
+                } else {
+                    target.set(sorts, a0, a1);
+                }
+            }
+        }
+
+        private Object[] args() {
+            return args != null ? args : Primitives.box(sorts, a0, a1);
+        }
+
+        private void cancelVerification() {
+            if (verifying != null) {
+                verifying.updateVerifying(-1);
+                verifying = null;
+                verifier = null;
+            }
+        }
     }
 
     public static final class CallHistory {
@@ -312,9 +909,48 @@ public class Visitor<T> {
      */
     public interface Fn {
         Object apply(final Object[] args) throws Throwable;
+
+        /**
+         * Variant of apply for arguments passed as raw bits (see Primitives). Implementations that don't read their
+         * arguments should override this so they're never boxed.
+         * @param sorts packed sorts of the arguments
+         * @param a0 raw bits of the first argument
+         * @param a1 raw bits of the second argument, ignored if there's only one
+         * @return the methods return value
+         * @throws Throwable to support thenThrow
+         */
+        default Object apply(final int sorts, final long a0, final long a1) throws Throwable {
+            return apply(Primitives.box(sorts, a0, a1));
+        }
+
+        /**
+         * Used when freezing mocks (see Mockery.freeze)
+         * @return the fn every later call will use, or null if that can still change (e.g a thenReturn chain)
+         */
+        default Fn settled() {
+            return this;
+        }
+
+        /**
+         * @return true if this always returns the same value, whatever args it's called with, and has no side effects
+         */
+        default boolean isConstant() {
+            return false;
+        }
     }
 
-    public interface TriPredicate<A, B, C> {
-        boolean test(A a, B b, C c);
+    /**
+     * Predicate that can test a primitive argument from its raw bits (see Primitives) instead of boxing it
+     */
+    public interface RawPredicate {
+        boolean test(final int sort, final long bits);
+    }
+
+    /**
+     * Predicate that only matches arguments equal to value, i.e the same boxed primitive or value.equals(o).
+     * Callbacks that only use these are looked up by hash (see Stubs)
+     */
+    public interface ExactPredicate {
+        Object value();
     }
 }
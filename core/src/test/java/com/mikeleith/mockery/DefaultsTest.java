@@ -16,5 +16,89 @@
 
 package com.mikeleith.mockery;
 
+import org.junit.jupiter.api.Test;
+
+import static com.mikeleith.mockery.Mockery.mock;
+import static com.mikeleith.mockery.Mockery.when;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
 public class DefaultsTest {
+    @Test
+    void testImpl() {
+        assertEquals(0, Defaults.Impl.IMPL.get(Integer.TYPE));
+        assertEquals(false, Defaults.Impl.IMPL.get(Boolean.TYPE));
+        assertNull(Defaults.Impl.IMPL.get(Void.TYPE));
+        assertNull(Defaults.Impl.IMPL.get(Session.class));
+    }
+
+    @Test
+    void testDeep() {
+        final Repository repository = mock(Repository.class, Defaults.Deep.DEEP);
+        final Session session = repository.open();
+        assertNotNull(session);
+        // the same child is returned each call
+        assertSame(session, repository.open());
+        assertNotSame(session, repository.open("name"));
+        assertNotNull(session.query().where("a"));
+
+        // non-mockable types still get the normal defaults
+        assertEquals(0, session.query().count());
+        assertNull(session.name());
+        assertNull(repository.ids());
+        assertNull(Defaults.Deep.failure(Session.class));
+        assertNotNull(Defaults.Deep.failure(String.class));
+        // the cause is kept, rather than probing again
+        assertSame(Defaults.Deep.failure(String.class), Defaults.Deep.failure(String.class));
+        assertNotNull(Defaults.Deep.failure(long[].class));
+
+        when(repository.open().query().count()).thenReturn(3);
+        assertEquals(3, repository.open().query().count());
+        Mockery.verify(repository, 4).open();
+        Mockery.verify(session, 4).query();
+    }
+
+    @Test
+    void testDeepWithoutHistory() {
+        final Repository repository = mock(Repository.class, false, Defaults.Deep.DEEP);
+        final Session session = repository.open();
+        for (int i = 0; i < 10; i++) {
+            session.name();
+        }
+        // only the last call is kept, like its parent
+        Mockery.verify(session, 1).name();
+
+        final Session tracked = mock(Repository.class, Defaults.Deep.DEEP).open();
+        for (int i = 0; i < 10; i++) {
+            tracked.name();
+        }
+        Mockery.verify(tracked, 10).name();
+    }
+
+    @Test
+    void testDeepReset() {
+        final Repository repository = mock(Repository.class, Defaults.Deep.DEEP);
+        final Session session = repository.open();
+        Mockery.reset(repository);
+        assertNotSame(session, repository.open());
+    }
+
+    public interface Repository {
+        Session open();
+        Session open(String name);
+        long[] ids();
+    }
+
+    public interface Session {
+        Query query();
+        String name();
+    }
+
+    public interface Query {
+        Query where(String clause);
+        int count();
+    }
 }
@@ -19,38 +19,42 @@ package com.mikeleith.mockery;
 import org.junit.jupiter.api.Test;
 import com.mikeleith.mockery.internal.Visitor;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class MockTest {
+    private static final String[] KEYS = new String[]{"foo", "bar"};
+    private static final int FOO = 0;
+    private static final int BAR = 1;
+
     @Test
     void testMockFailsWithMissingArgs() {
         assertNull(Matchers.getMatchers());
         Matchers.any();
-        assertThrows(RuntimeException.class, () -> new Mock<>(new Visitor<>(null, Defaults.Impl.IMPL, true),
-                "foo", 1, null));
+        assertThrows(RuntimeException.class, () -> new Mock<>(new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS),
+                FOO, 1, null));
     }
 
     @Test
     void testMockWithoutMatchers() throws Throwable {
         assertNull(Matchers.getMatchers());
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final Mock<Integer> mock = new Mock<>(visitor, "foo", 1, null);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final Mock<Integer> mock = new Mock<>(visitor, FOO, 1, null);
 
-        final List<Object[]> fooList = new ArrayList<>();
-        final List<Object[]> barList = new ArrayList<>();
-        assertNull(visitor.run(fooList, "foo", Object.class, 1, null));
-        assertNull(visitor.run(barList, "bar", Object.class, 1, null));
-        assertNull(visitor.run(fooList, "foo", Object.class, 2, null));
+        assertNull(visitor.run(FOO, Object.class, 1, null));
+        assertNull(visitor.run(BAR, Object.class, 1, null));
+        assertNull(visitor.run(FOO, Object.class, 2, null));
 
         mock.thenReturn(100);
-        assertEquals(100, visitor.run(fooList, "foo", Object.class, 1, null));
-        assertNull(visitor.run(barList, "bar", Object.class, 1, null));
-        assertNull(visitor.run(fooList, "foo", Object.class, 2, null));
+        assertEquals(100, visitor.run(FOO, Object.class, 1, null));
+        assertNull(visitor.run(BAR, Object.class, 1, null));
+        assertNull(visitor.run(FOO, Object.class, 2, null));
     }
 
     @Test
@@ -58,22 +62,20 @@ public class MockTest {
         assertNull(Matchers.getMatchers());
         Matchers.eq(1);
         Matchers.any();
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final Mock<Integer> mock = new Mock<>(visitor, "foo", 1, null);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final Mock<Integer> mock = new Mock<>(visitor, FOO, 1, null);
 
-        final List<Object[]> fooList = new ArrayList<>();
-        final List<Object[]> barList = new ArrayList<>();
-        assertNull(visitor.run(fooList, "foo", Object.class, 1, null));
-        assertNull(visitor.run(barList, "bar", Object.class, 1, null));
-        assertNull(visitor.run(fooList, "foo", Object.class, 2, null));
+        assertNull(visitor.run(FOO, Object.class, 1, null));
+        assertNull(visitor.run(BAR, Object.class, 1, null));
+        assertNull(visitor.run(FOO, Object.class, 2, null));
 
         mock.thenReturn(1).thenReturn(100);
-        assertEquals(1, visitor.run(fooList, "foo", Object.class, 1, null));
+        assertEquals(1, visitor.run(FOO, Object.class, 1, null));
         for (int i = 0; i < 100; i++) {
-            assertEquals(100, visitor.run(fooList, "foo", Object.class, 1, null));
+            assertEquals(100, visitor.run(FOO, Object.class, 1, null));
         }
-        assertNull(visitor.run(barList, "bar", Object.class, 1, null));
-        assertNull(visitor.run(fooList, "foo", Object.class, 2, null));
+        assertNull(visitor.run(BAR, Object.class, 1, null));
+        assertNull(visitor.run(FOO, Object.class, 2, null));
     }
 
     @Test
@@ -81,15 +83,13 @@ public class MockTest {
         assertNull(Matchers.getMatchers());
         Matchers.eq(1);
         Matchers.any();
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final Mock<Integer> mock = new Mock<>(visitor, "foo", 1, null);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final Mock<Integer> mock = new Mock<>(visitor, FOO, 1, null);
 
         mock.thenReturn(100);
-        final List<Object[]> fooList = new ArrayList<>();
-        final List<Object[]> barList = new ArrayList<>();
-        assertEquals(100, visitor.run(fooList, "foo", Object.class, 1, null));
-        assertNull(visitor.run(barList, "bar", Object.class, 1, null));
-        assertNull(visitor.run(fooList, "foo", Object.class, 2, null));
+        assertEquals(100, visitor.run(FOO, Object.class, 1, null));
+        assertNull(visitor.run(BAR, Object.class, 1, null));
+        assertNull(visitor.run(FOO, Object.class, 2, null));
     }
 
     @Test
@@ -97,19 +97,17 @@ public class MockTest {
         assertNull(Matchers.getMatchers());
         Matchers.eq(1);
         Matchers.any();
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final Mock<Integer> mock = new Mock<>(visitor, "foo", 1, null);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final Mock<Integer> mock = new Mock<>(visitor, FOO, 1, null);
 
         mock.thenAnswer(i -> {
             assertEquals(1, i[0]);
             assertNull(i[1]);
             return 100;
         });
-        final List<Object[]> fooList = new ArrayList<>();
-        final List<Object[]> barList = new ArrayList<>();
-        assertEquals(100, visitor.run(fooList, "foo", Object.class, 1, null));
-        assertNull(visitor.run(barList, "bar", Object.class, 1, null));
-        assertNull(visitor.run(fooList, "foo", Object.class, 2, null));
+        assertEquals(100, visitor.run(FOO, Object.class, 1, null));
+        assertNull(visitor.run(BAR, Object.class, 1, null));
+        assertNull(visitor.run(FOO, Object.class, 2, null));
     }
 
     @Test
@@ -117,15 +115,13 @@ public class MockTest {
         assertNull(Matchers.getMatchers());
         Matchers.eq(1);
         Matchers.any();
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final Mock<Integer> mock = new Mock<>(visitor, "foo", 1, null);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final Mock<Integer> mock = new Mock<>(visitor, FOO, 1, null);
 
         mock.thenThrow(new RuntimeException());
-        final List<Object[]> fooList = new ArrayList<>();
-        final List<Object[]> barList = new ArrayList<>();
-        assertThrows(RuntimeException.class, () -> visitor.run(fooList, "foo", Object.class, 1, null));
-        assertNull(visitor.run(barList, "bar", Object.class, 1, null));
-        assertNull(visitor.run(fooList, "foo", Object.class, 2, null));
+        assertThrows(RuntimeException.class, () -> visitor.run(FOO, Object.class, 1, null));
+        assertNull(visitor.run(BAR, Object.class, 1, null));
+        assertNull(visitor.run(FOO, Object.class, 2, null));
     }
 
     @Test
@@ -133,14 +129,75 @@ public class MockTest {
         assertNull(Matchers.getMatchers());
         Matchers.eq(1);
         Matchers.any();
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final Mock<Integer> mock = new Mock<>(visitor, "foo", 1, null);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final Mock<Integer> mock = new Mock<>(visitor, FOO, 1, null);
 
         mock.thenThrow(IllegalAccessException.class);
-        final List<Object[]> fooList = new ArrayList<>();
-        final List<Object[]> barList = new ArrayList<>();
-        assertThrows(IllegalAccessException.class, () -> visitor.run(fooList, "foo", Object.class,1, null));
-        assertNull(visitor.run(barList, "bar", Object.class, 1, null));
-        assertNull(visitor.run(fooList, "foo", Object.class, 2, null));
+        assertThrows(IllegalAccessException.class, () -> visitor.run(FOO, Object.class,1, null));
+        assertNull(visitor.run(BAR, Object.class, 1, null));
+        assertNull(visitor.run(FOO, Object.class, 2, null));
+    }
+
+    @Test
+    void testMockThenReturnSequence() throws Throwable {
+        assertNull(Matchers.getMatchers());
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final Mock<Integer> mock = new Mock<>(visitor, FOO);
+
+        mock.thenReturn(1, 2, 3).thenReturnFrom(new Integer[]{4, 5}).thenThrow(new RuntimeException());
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, visitor.run(FOO, Object.class));
+        }
+        assertThrows(RuntimeException.class, () -> visitor.run(FOO, Object.class));
+        assertThrows(RuntimeException.class, () -> visitor.run(FOO, Object.class));
+
+        // calls past the end continue from answers added later
+        mock.thenReturn(6);
+        assertEquals(6, visitor.run(FOO, Object.class));
+        assertEquals(6, visitor.run(FOO, Object.class));
+    }
+
+    @Test
+    void testMockThenReturnFromPrimitives() throws Throwable {
+        assertNull(Matchers.getMatchers());
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        new Mock<Long>(visitor, FOO).thenReturnFrom(new long[]{1, 2}).thenReturnFrom(new int[]{3})
+                .thenReturnFrom(new double[]{4.5});
+        assertEquals(1L, visitor.run(FOO, Object.class));
+        assertEquals(2L, visitor.run(FOO, Object.class));
+        assertEquals(3, visitor.run(FOO, Object.class));
+        assertEquals(4.5, visitor.run(FOO, Object.class));
+        assertEquals(4.5, visitor.run(FOO, Object.class));
+        assertThrows(RuntimeException.class, () -> new Mock<Long>(visitor, BAR).thenReturnFrom(new long[0]));
+    }
+
+    @Test
+    void testMockThenReturnCycling() throws Throwable {
+        assertNull(Matchers.getMatchers());
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final Mock<Integer> mock = new Mock<Integer>(visitor, FOO).thenReturn(0).thenReturnCycling(1, 2, 3);
+        assertEquals(0, visitor.run(FOO, Object.class));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i % 3 + 1, visitor.run(FOO, Object.class));
+        }
+        assertThrows(RuntimeException.class, () -> mock.thenReturn(4));
+    }
+
+    @Test
+    void testMockSequenceIsSharedBetweenThreads() {
+        assertNull(Matchers.getMatchers());
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, false, KEYS);
+        final int n = 100_000;
+        new Mock<Integer>(visitor, FOO).thenReturnFrom(IntStream.range(0, n).toArray()).thenReturn(-1);
+        // every value is returned exactly once, however the calls are interleaved
+        final Set<Object> seen = IntStream.range(0, n).parallel().mapToObj(i -> {
+            try {
+                return visitor.run(FOO, Object.class);
+            } catch (final Throwable e) {
+                throw new RuntimeException(e);
+            }
+        }).collect(Collectors.toSet());
+        assertEquals(n, seen.size());
+        assertFalse(seen.contains(-1));
     }
 }
@@ -21,6 +21,9 @@ import org.junit.jupiter.api.Test;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -44,6 +47,15 @@ public class MockeryConcurrentTest {
         assertEquals(1_000_000, res.size());
     }
 
+    @Test
+    void testConcurrentMockCreationGeneratesOnce() {
+        Mockery.clearCache();
+        final Set<Class<?>> classes = IntStream.range(0, 10_000).parallel()
+                .mapToObj(i -> i % 2 == 0 ? Mockery.mock(Foo.class).getClass() : Mockery.mock(Bar.class).getClass())
+                .collect(Collectors.toSet());
+        assertEquals(2, classes.size());
+    }
+
     @Test
     void testConcurrentDefault() {
         final Foo foo = Mockery.mock(Foo.class);
@@ -92,18 +104,106 @@ public class MockeryConcurrentTest {
     }
 
     @Test
-    void testConcurrentVerifyThrows() {
+    void testConcurrentVerify() {
         final Foo foo = Mockery.mock(Foo.class);
         int i = 1_000_000;
-        // result is wrong because we haven't locked the verify
-        assertThrows(RuntimeException.class, () -> LongStream.range(0, i).parallel()
-                .forEach(j -> Mockery.verify(foo, 0).doStuff(1)));
+        // each thread's verifier is only used by its own next call
+        LongStream.range(0, i).parallel().forEach(j -> Mockery.verify(foo, 0).doStuff(1));
+        assertThrows(RuntimeException.class, () -> Mockery.verify(foo, 1).doStuff(1));
+    }
+
+    @Test
+    void testStubbingIsPerThread() throws Exception {
+        final Foo foo = Mockery.mock(Foo.class);
+        final Bar bar = Mockery.mock(Bar.class);
+        foo.doStuff(Matchers.eq(1L));
+        // another thread's calls and matchers don't change what this thread stubs
+        CompletableFuture.runAsync(() -> {
+            when(bar.doStuff(anyLong())).thenReturn(2L);
+            Mockery.verify(foo, 0).doStuff(2);
+        }).get(10, TimeUnit.SECONDS);
+        Mockery.when(0L).thenReturn(5L);
+        assertEquals(5L, foo.doStuff(1));
+        assertEquals(0L, foo.doStuff(2));
+        assertEquals(2L, bar.doStuff(1));
+    }
+
+    @Test
+    void testWhenUsesThisThreadsCall() throws Exception {
+        final Foo foo = Mockery.mock(Foo.class, false);
+        foo.doStuff(1);
+        // replaces the call kept by foo, but not the one this thread made
+        CompletableFuture.runAsync(() -> foo.doStuff(2)).get(10, TimeUnit.SECONDS);
+        when(0L).thenReturn(5L);
+        assertEquals(5L, foo.doStuff(1));
+        assertEquals(0L, foo.doStuff(2));
+    }
+
+    @Test
+    void testVerifyIsPerThread() throws Exception {
+        final Foo foo = Mockery.mock(Foo.class);
+        foo.doStuff(1);
+        Mockery.verify(foo, 2);
+        // recorded rather than verified, since it's from another thread
+        assertEquals(0L, CompletableFuture.supplyAsync(() -> foo.doStuff(1)).get(10, TimeUnit.SECONDS));
+        foo.doStuff(1);
+        Mockery.verify(foo, 2).doStuff(1);
+    }
+
+    @Test
+    void testCallsDontLockTheMock() throws Exception {
+        final Foo foo = Mockery.mock(Foo.class);
+        synchronized (foo) {
+            // would time out if generated methods still synchronized on the mock
+            assertEquals(0L, CompletableFuture.supplyAsync(() -> foo.doStuff(1)).get(10, TimeUnit.SECONDS));
+        }
+        Mockery.verify(foo, 1).doStuff(1);
+    }
+
+    @Test
+    void testConcurrentHistoryAcrossMethods() {
+        final Bar bar = Mockery.mock(Bar.class);
+        when(bar.doOther(anyLong())).thenReturn(1L);
+        final int i = 1_000_000;
+        final long res = LongStream.range(0, i).parallel()
+                .map(j -> j % 2 == 0 ? bar.doStuff(j) : bar.doOther(j)).sum();
+        assertEquals(i / 2, res);
+        Mockery.verify(bar, i / 2).doStuff(anyLong());
+        Mockery.verify(bar, i / 2).doOther(anyLong());
+    }
+
+    @Test
+    void testStubsSwappedDuringCalls() throws Exception {
+        for (final boolean history : new boolean[]{true, false}) {
+            final Foo foo = Mockery.mock(Foo.class, history);
+            when(foo.doStuff(anyLong())).thenReturn(1L);
+            final AtomicBoolean done = new AtomicBoolean(false);
+            final Thread stubber = new Thread(() -> {
+                for (long j = 0; !done.get(); j++) {
+                    // calls see the old or new stub, never one without a return value
+                    when(foo.doStuff(j % 200)).thenReturn(1 + j % 2);
+                }
+            });
+            stubber.start();
+            try {
+                assertTrue(LongStream.range(0, 1_000_000).parallel()
+                        .map(j -> foo.doStuff(j % 200)).allMatch(j -> j == 1 || j == 2));
+            } finally {
+                done.set(true);
+                stubber.join(10_000);
+            }
+        }
     }
 
     public interface Foo {
         long doStuff(long i);
     }
 
+    public interface Bar {
+        long doStuff(long i);
+        long doOther(long i);
+    }
+
     private static final class Counter {
         long i = 0;
         final AtomicLong l = new AtomicLong(0);
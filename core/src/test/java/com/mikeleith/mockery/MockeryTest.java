@@ -18,17 +18,44 @@ package com.mikeleith.mockery;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+import com.mikeleith.mockery.internal.ClassCache;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static com.mikeleith.mockery.Matchers.anyInt;
 import static com.mikeleith.mockery.Mockery.mock;
 import static com.mikeleith.mockery.Mockery.when;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class MockeryTest {
     @BeforeEach
@@ -253,12 +280,145 @@ public class MockeryTest {
 
         when(impl.intAcc("lol", 1L, 0)).thenReturn("welp2");
         when(impl.intAcc("lol", 1L, 1)).thenReturn("welp3");
-        assertNull(impl.intAcc("lol", 1L, 0));
+        assertEquals("welp2", impl.intAcc("lol", 1L, 0));
         assertEquals("welp3", impl.intAcc("lol", 1L, 1));
         assertNull(impl.intAcc("lol", 1L, 2));
         Mockery.verify(impl, 1).intAcc("lol", 1L, 0);
     }
 
+    @Test
+    void testMockAll() {
+        final Object[] mocks = Mockery.mockAll(Foo.class, Target.class, Foo.class);
+        assertEquals(3, mocks.length);
+        final Foo foo = (Foo) mocks[0];
+        final Target target = (Target) mocks[1];
+        assertNotSame(foo, mocks[2]);
+        when(target.doSomething()).thenReturn("a");
+        assertEquals("a", target.doSomething());
+        assertNull(foo.test("welp"));
+        Mockery.verify(foo, 1).test("welp");
+        Mockery.verify((Foo) mocks[2], 0).test("welp");
+
+        assertEquals(0, Mockery.mockAll().length);
+        // failures are thrown when their class is mocked
+        assertThrows(RuntimeException.class, () -> Mockery.mockAll(Foo.class, Final.class));
+    }
+
+    @Test
+    void testPreload() {
+        Mockery.preload(Arrays.asList(Foo.class, Target.class, Final.class));
+        // waits for (or reuses) the preloaded classes
+        assertEquals(mock(Foo.class).getClass(), mock(Foo.class).getClass());
+        when(mock(Target.class).doSomething()).thenReturn("a");
+        assertThrows(RuntimeException.class, () -> mock(Final.class));
+    }
+
+    @Test
+    void testPreloadPackage(@TempDir final Path dir) throws Exception {
+        final ClassWriter wr = new ClassWriter(0);
+        wr.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE,
+                "preload/Target", null, "java/lang/Object", null);
+        wr.visitEnd();
+        Files.createDirectories(dir.resolve("classes/preload"));
+        Files.write(dir.resolve("classes/preload/Target.class"), wr.toByteArray());
+
+        // preloaded classes are written to the cache as they're generated
+        Mockery.setCacheDirectory(dir.resolve("cache"));
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.resolve("classes").toUri().toURL()},
+                getClass().getClassLoader())) {
+            Mockery.preload("preload", loader);
+            for (int i = 0; i < 500 && cached(dir.resolve("cache")) == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, cached(dir.resolve("cache")));
+            assertNotNull(mock(loader.loadClass("preload.Target")));
+        } finally {
+            Mockery.setCacheDirectory(null);
+        }
+    }
+
+    /**
+     * @param dir cache directory
+     * @return number of entries written to the cache
+     */
+    private static long cached(final Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> !f.toString().endsWith(".tmp")).count();
+        }
+    }
+
+    public interface Tiered {
+        String foo(String s);
+        int bar(int i, long l);
+        void baz();
+    }
+
+    @Test
+    void testTiered() throws Exception {
+        Mockery.setTiered(true);
+        try {
+            Mockery.clearCache();
+            final Tiered proxy = mock(Tiered.class);
+            assertTrue(java.lang.reflect.Proxy.isProxyClass(proxy.getClass()));
+            // proxies behave just like generated mocks
+            assertNull(proxy.foo("a"));
+            assertEquals(0, proxy.bar(1, 2L));
+            when(proxy.foo("a")).thenReturn("b");
+            when(proxy.bar(anyInt(), Matchers.eq(2L))).thenReturn(3);
+            assertEquals("b", proxy.foo("a"));
+            assertEquals(3, proxy.bar(5, 2L));
+            proxy.baz();
+            Mockery.verify(proxy, 2).foo("a");
+            Mockery.verify(proxy, 1).baz();
+            assertEquals(proxy, proxy);
+            assertEquals(System.identityHashCode(proxy), proxy.hashCode());
+            Mockery.reset(proxy);
+            Mockery.verify(proxy, 0).foo("a");
+
+            // later mocks use the class generated in the background
+            Tiered generated = mock(Tiered.class);
+            for (int i = 0; i < 500 && java.lang.reflect.Proxy.isProxyClass(generated.getClass()); i++) {
+                Thread.sleep(10);
+                generated = mock(Tiered.class);
+            }
+            assertTrue(generated instanceof Mockery.Trackable);
+            assertFalse(java.lang.reflect.Proxy.isProxyClass(generated.getClass()));
+            when(generated.foo("a")).thenReturn("c");
+            assertEquals("c", generated.foo("a"));
+            // reset cleared the proxy's stubs
+            assertNull(proxy.foo("a"));
+
+            // only interfaces can be proxied
+            assertFalse(java.lang.reflect.Proxy.isProxyClass(mock(Foo.class).getClass()));
+        } finally {
+            Mockery.setTiered(false);
+        }
+    }
+
+    @Test
+    void testGenerationStartsOnce() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Mockery.Generation<String> task = new Mockery.Generation<>(() -> {
+            latch.await();
+            return "a";
+        });
+        assertTrue(task.start());
+        // e.g every tiered mock made while the class is generating, these don't queue it again
+        for (int i = 0; i < 100; i++) {
+            assertFalse(task.start());
+        }
+        latch.countDown();
+        assertEquals("a", task.get());
+        assertFalse(task.start());
+
+        final Mockery.Generation<String> done = new Mockery.Generation<>(() -> "b");
+        done.run();
+        assertFalse(done.start());
+    }
+
     @Test
     void testArgumentMatchersWithMixedArgs() {
         final Foo impl = mock(Foo.class);
@@ -283,7 +443,7 @@ public class MockeryTest {
         assertEquals("welp", impl.intAcc(1));
 
         when(impl.intAcc(Matchers.matchesInt(i -> i >= 0))).thenReturn("welp2");
-        assertNull(impl.intAcc(-1));
+        assertEquals("welp", impl.intAcc(-1));
         assertEquals("welp2", impl.intAcc(0));
         assertEquals("welp2", impl.intAcc(1));
 
@@ -301,9 +461,16 @@ public class MockeryTest {
         final Foo impl = mock(Foo.class);
         when(impl.test(Matchers.eq("foo"))).thenReturn("1");
         when(impl.test(Matchers.eq("bar"))).thenReturn("2");
-        assertNull(impl.test("foo"));
+        assertEquals("1", impl.test("foo"));
         assertEquals("2", impl.test("bar"));
         assertNull(impl.test(null));
+
+        when(impl.test(Matchers.any())).thenReturn("3");
+        assertEquals("3", impl.test("foo"));
+        assertEquals("3", impl.test(null));
+        when(impl.test("foo")).thenReturn("4");
+        assertEquals("4", impl.test("foo"));
+        assertEquals("3", impl.test("bar"));
     }
 
     @Test
@@ -326,10 +493,11 @@ public class MockeryTest {
     @Test
     void testMocksCanBeUsedInWhenParameters() {
         final Foo impl = mock(Foo.class);
-        when(impl.test(Matchers.any())).thenReturn("foo");
+        when(impl.test(Matchers.eq("bar"))).thenReturn("baz");
         when(impl.test(impl.test("bar"))).thenReturn("foo");
-        assertEquals("foo", impl.test("foo"));
-        assertNull(impl.test("bar"));
+        assertEquals("foo", impl.test("baz"));
+        assertEquals("baz", impl.test("bar"));
+        assertNull(impl.test("foo"));
     }
 
     @Test
@@ -339,9 +507,83 @@ public class MockeryTest {
         when(impl.test(Matchers.any())).thenReturn("bar");
         assertEquals("bar", impl.test("lol"));
 
-        when(impl.test("welp")).thenReturn("bar");
-        assertNull(impl.test("lol"));
-        assertEquals("bar", impl.test("welp"));
+        when(impl.test("welp")).thenReturn("baz");
+        assertEquals("bar", impl.test("lol"));
+        assertEquals("baz", impl.test("welp"));
+        when(impl.test("welp")).thenReturn("qux");
+        assertEquals("qux", impl.test("welp"));
+    }
+
+    @Test
+    void testBareWhen() {
+        final Foo impl = mock(Foo.class);
+        when(impl.test("a")).thenReturn("x");
+        // stubs are only registered by a thenX, so this leaves the old one in place
+        when(impl.test("a"));
+        assertEquals("x", impl.test("a"));
+        when(impl.test("a")).thenReturn("y");
+        assertEquals("y", impl.test("a"));
+    }
+
+    @Test
+    void testManyExactStubs() {
+        final Foo impl = mock(Foo.class);
+        for (int i = 0; i < 1000; i++) {
+            when(impl.test("key" + i)).thenReturn("value" + i);
+            when(impl.intAcc(i)).thenReturn("int" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("value" + i, impl.test("key" + i));
+            assertEquals("int" + i, impl.intAcc(i));
+        }
+        assertNull(impl.test("key1000"));
+        assertNull(impl.intAcc(1000));
+
+        // a newer predicate stub takes precedence over older exact ones, but not newer ones
+        when(impl.intAcc(Matchers.matchesInt(i -> i % 2 == 0))).thenReturn("even");
+        when(impl.intAcc(2)).thenReturn("two");
+        assertEquals("even", impl.intAcc(0));
+        assertEquals("int1", impl.intAcc(1));
+        assertEquals("two", impl.intAcc(2));
+        assertEquals("even", impl.intAcc(2000));
+
+        Mockery.reset(impl);
+        assertNull(impl.test("key1"));
+        assertNull(impl.intAcc(1));
+    }
+
+    public interface Keyed {
+        String f(Object key);
+    }
+
+    // equal by value, but doesn't override hashCode
+    public static final class Key {
+        private final int value;
+
+        Key(final int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && ((Key) o).value == value;
+        }
+    }
+
+    @Test
+    void testExactStubsUseEquals() {
+        final Keyed impl = mock(Keyed.class);
+        when(impl.f(new Key(1))).thenReturn("hit");
+        assertEquals("hit", impl.f(new Key(1)));
+        assertNull(impl.f(new Key(2)));
+
+        // args are compared when called, not when stubbed
+        final List<String> list = new ArrayList<>();
+        when(impl.f(list)).thenReturn("list");
+        list.add("a");
+        assertEquals("list", impl.f(list));
+        assertEquals("list", impl.f(Collections.singletonList("a")));
+        assertNull(impl.f(Collections.emptyList()));
     }
 
     @Test
@@ -577,14 +819,493 @@ public class MockeryTest {
         assertEquals("bar", impl.get());
     }
 
+    public static class WithStaticInitializer {
+        static final Object LOCK = new Object();
+
+        public String get() {
+            return "foo";
+        }
+    }
+
+    @Test
+    void testMockStaticInitializer() {
+        final WithStaticInitializer impl = mock(WithStaticInitializer.class);
+        assertNull(impl.get());
+    }
+
+    @Test
+    void testMockWithFilter() {
+        final Filtered impl = mock(Filtered.class, FILTER);
+        assertNull(impl.get());
+        // not mocked, so it keeps its real implementation
+        assertEquals("bar", impl.bar());
+        when(impl.get()).thenReturn("a");
+        assertEquals("a", impl.get());
+        Mockery.verify(impl, 2).get();
+        // the same filter reuses the same class, as does an equal one built separately, unlike a different one
+        assertSame(impl.getClass(), mock(Filtered.class, FILTER).getClass());
+        assertSame(impl.getClass(), mock(Filtered.class, MethodFilter.named("get")).getClass());
+        assertNotEquals(impl.getClass(), mock(Filtered.class, MethodFilter.named("bar")).getClass());
+        assertNotEquals(impl.getClass(), mock(Filtered.class, (MethodFilter) m -> "get".equals(m.getName())).getClass());
+        assertNotEquals(impl.getClass(), mock(Filtered.class).getClass());
+
+        final Filtered annotated = mock(Filtered.class, MethodFilter.annotatedWith(Deprecated.class));
+        assertEquals("foo", annotated.get());
+        assertNull(annotated.bar());
+
+        final Filtered declared = mock(Filtered.class, MethodFilter.declaredBy(Object.class).negate());
+        assertNull(declared.get());
+        assertNull(declared.bar());
+        assertEquals(declared, declared);
+    }
+
+    @Test
+    void testMethodFilterEquality() {
+        assertEquals(MethodFilter.named("a", "b"), MethodFilter.named("b", "a"));
+        assertEquals(MethodFilter.named("a").hashCode(), MethodFilter.named("a").hashCode());
+        assertNotEquals(MethodFilter.named("a"), MethodFilter.named("b"));
+        assertEquals(MethodFilter.annotatedWith(Deprecated.class), MethodFilter.annotatedWith(Deprecated.class));
+        assertEquals(MethodFilter.declaredBy(Object.class), MethodFilter.declaredBy(Object.class));
+        assertNotEquals(MethodFilter.declaredBy(Object.class), MethodFilter.annotatedWith(Deprecated.class));
+        assertEquals(FILTER.and(MethodFilter.ALL).or(MethodFilter.OBJECT_METHODS).negate(),
+                MethodFilter.named("get").and(MethodFilter.ALL).or(MethodFilter.OBJECT_METHODS).negate());
+        assertNotEquals(FILTER.and(MethodFilter.ALL), FILTER.or(MethodFilter.ALL));
+        assertNotEquals(FILTER.and(MethodFilter.ALL), MethodFilter.ALL.and(FILTER));
+        assertNotEquals(FILTER, FILTER.negate());
+        assertEquals(MethodFilter.DEFAULT, MethodFilter.OBJECT_METHODS.negate());
+    }
+
+    private static final MethodFilter FILTER = MethodFilter.named("get");
+
+    public static class Filtered {
+        public String get() {
+            return "foo";
+        }
+
+        @Deprecated
+        public String bar() {
+            return "bar";
+        }
+    }
+
+    @Test
+    void testInterfaceMocksAreCreatedByFactory() {
+        final Target first = mock(Target.class);
+        final Target second = mock(Target.class);
+        assertTrue(first instanceof Mockery.Factory);
+        assertSame(first.getClass(), second.getClass());
+        // each instance gets its own visitor
+        when(first.doSomething()).thenReturn("a");
+        assertEquals("a", first.doSomething());
+        assertNull(second.doSomething());
+        Mockery.verify(second, 1).doSomething();
+
+        // classes can't call their parent's constructor, so they're still created by objenesis
+        assertFalse(mock(WithNative.class) instanceof Mockery.Factory);
+    }
+
     @Test
     void testMockEquals() {
+        // identity by default, and not recorded
         final WithNative impl = mock(WithNative.class);
-        assertNotEquals(impl, impl);
+        assertEquals(impl, impl);
         assertNotEquals(impl, true);
-        when(impl.equals(Matchers.any())).thenReturn(true);
+        assertNotEquals(impl, mock(WithNative.class));
+        assertEquals(System.identityHashCode(impl), impl.hashCode());
+        assertEquals(impl.getClass().getName() + "@" + Integer.toHexString(impl.hashCode()), impl.toString());
+        final Set<Object> set = new HashSet<>(Arrays.asList(impl, impl));
+        assertEquals(1, set.size());
+        // stubbing them fails, rather than stubbing the last call that was recorded
+        impl.get();
+        final NullPointerException e = assertThrows(NullPointerException.class,
+                () -> when(impl.toString()).thenReturn("stubbed"));
+        assertTrue(e.getMessage().contains("MethodFilter.ALL"));
+        assertNull(impl.get());
+        assertNotEquals("stubbed", impl.toString());
+        impl.get();
+        assertThrows(NullPointerException.class, () -> when(impl.equals(Matchers.any())).thenReturn(true));
+        assertNotEquals(impl, mock(WithNative.class));
+        when(impl.get()).thenReturn("a");
+        assertEquals("a", impl.get());
+        Mockery.reset();
+
+        // but mocks' equals can still be called while they're passed to another mock
+        final Keyed keyed = mock(Keyed.class);
+        when(keyed.f(impl)).thenReturn("b");
+        when(keyed.f(impl)).thenReturn("c");
+        assertEquals("c", keyed.f(impl));
+        when(keyed.f(Matchers.matches(o -> o.hashCode() != 0))).thenReturn("d");
+        assertEquals("d", keyed.f(impl));
+
+        // unless they're opted in
+        final WithNative mocked = mock(WithNative.class, MethodFilter.ALL);
+        assertNotEquals(mocked, mocked);
+        assertNotEquals(mocked, true);
+        when(mocked.equals(Matchers.any())).thenReturn(true);
+        when(mocked.toString()).thenReturn("foo");
+        assertEquals(mocked, mocked);
+        assertEquals(mocked, true);
+        assertEquals("foo", mocked.toString());
+        Mockery.verify(mocked, 4).equals(Matchers.any());
+    }
+
+    @Test
+    void testInterfaceMockEquals() {
+        final Target impl = mock(Target.class);
         assertEquals(impl, impl);
-        assertEquals(impl, true);
+        assertNotEquals(impl, mock(Target.class));
+        assertEquals(System.identityHashCode(impl), impl.hashCode());
+
+        final Target mocked = mock(Target.class, MethodFilter.ALL);
+        when(mocked.hashCode()).thenReturn(1);
+        assertEquals(1, mocked.hashCode());
+    }
+
+    public interface Primitive {
+        long l(final long l);
+        int i(final int i, final int j);
+        double d(final double d);
+        String s(final char c, final boolean b);
+        float f(final float f, final long l);
+        int none();
+        double dNone();
+        String sNone();
+        void vNone();
+    }
+
+    public static class Wide {
+        public Wide(final long l, final double d, final String s) {}
+
+        public double d(final long l, final double d, final String s, final long l2) {
+            return d;
+        }
+
+        public void v(final double d, final double d2, final double d3) {}
+    }
+
+    @Test
+    void testMockWideArgs() {
+        // long/double args take two slots, in the constructors and stubs we generate
+        final Wide impl = mock(Wide.class);
+        assertEquals(0.0, impl.d(1L, 2.0, "3", 4L));
+        when(impl.d(1L, 2.0, "3", 4L)).thenReturn(5.0);
+        assertEquals(5.0, impl.d(1L, 2.0, "3", 4L));
+        impl.v(1.0, 2.0, 3.0);
+        Mockery.verify(impl, 1).v(1.0, 2.0, 3.0);
+
+        final Wide spy = Mockery.spy(Wide.class, 1L, 2.0, "3");
+        assertEquals(2.0, spy.d(1L, 2.0, "3", 4L));
+    }
+
+    @Test
+    void testPassiveMock() {
+        final Primitive impl = mock(Primitive.class, false);
+        assertEquals(0, impl.none());
+        assertEquals(0.0, impl.dNone());
+        assertNull(impl.sNone());
+        impl.vNone();
+        // stubbing a passive call works as usual
+        when(impl.none()).thenReturn(2);
+        assertEquals(2, impl.none());
+        Mockery.verify(impl, 1).none();
+        Mockery.reset(impl);
+        assertEquals(0, impl.none());
+        Mockery.verify(impl, 1).none();
+
+        // and the same for primitive args
+        assertEquals(0L, impl.l(3));
+        assertEquals(0, impl.i(1, 2));
+        assertEquals(0.0f, impl.f(1.5f, 2L));
+        assertNull(impl.s('c', true));
+        when(impl.i(1, 2)).thenReturn(3);
+        assertEquals(3, impl.i(1, 2));
+        assertEquals(0, impl.i(2, 1));
+        Mockery.verify(impl, 1).i(2, 1);
+        Mockery.reset(impl);
+        assertEquals(0.0, impl.d(-1.5));
+        Mockery.verify(impl, 1).d(-1.5);
+        Mockery.verify(impl, 0).d(1.5);
+
+        // calls to other mocks/methods in between don't lose a passive call
+        final Primitive other = mock(Primitive.class, false);
+        impl.l(7);
+        other.none();
+        impl.hashCode();
+        Mockery.verify(impl, 1).l(7);
+        Mockery.verify(other, 1).none();
+        Mockery.reset(impl);
+        impl.l(8);
+        Mockery.reset(impl);
+        Mockery.verify(impl, 0).l(8);
+    }
+
+    @Test
+    void testFreeze() {
+        final Primitive impl = mock(Primitive.class);
+        when(impl.none()).thenReturn(2);
+        when(impl.i(anyInt(), Matchers.eq(2))).thenReturn(3);
+        when(impl.s(Matchers.eq('c'), Matchers.anyBool())).thenReturn("s");
+        when(impl.f(Matchers.matchesFloat(f -> f > 0), Matchers.eq(5L))).thenAnswer(a -> (float) a[0] + (long) a[1]);
+        when(impl.sNone()).thenReturn("a").thenReturn("b");
+
+        final Primitive frozen = Mockery.freeze(impl);
+        assertFalse(frozen instanceof Mockery.Trackable);
+        assertEquals(2, frozen.none());
+        assertEquals(3, frozen.i(1, 2));
+        assertEquals(0, frozen.i(1, 3));
+        assertEquals("s", frozen.s('c', false));
+        assertNull(frozen.s('d', false));
+        assertEquals(6.0f, frozen.f(1.0f, 5L));
+        assertEquals(0.0f, frozen.f(-1.0f, 5L));
+        assertEquals(0L, frozen.l(1));
+        frozen.vNone();
+        // chains that haven't finished are shared with the mock
+        assertEquals("a", frozen.sNone());
+        assertEquals("b", impl.sNone());
+        assertEquals("b", frozen.sNone());
+
+        // frozen mocks aren't affected by later stubs, and don't record calls
+        when(impl.none()).thenReturn(4);
+        assertEquals(2, frozen.none());
+        Mockery.verify(impl, 0).i(1, 2);
+        assertThrows(RuntimeException.class, () -> Mockery.verify(frozen, 1).none());
+        assertEquals(frozen, frozen);
+        assertNotEquals(frozen, impl);
+    }
+
+    @Test
+    void testThenReturnSequences() {
+        final Primitive impl = mock(Primitive.class, false);
+        when(impl.l(Matchers.anyLong())).thenReturnFrom(new long[]{1, 2, 3});
+        when(impl.i(anyInt(), anyInt())).thenReturnCycling(4, 5);
+        when(impl.sNone()).thenReturn("a", "b");
+        assertEquals(1, impl.l(0));
+        assertEquals(2, impl.l(0));
+        assertEquals(3, impl.l(0));
+        assertEquals(3, impl.l(0));
+        assertEquals(4, impl.i(0, 0));
+        assertEquals(5, impl.i(0, 0));
+        assertEquals(4, impl.i(0, 0));
+        assertEquals("a", impl.sNone());
+
+        // finished sequences freeze to their last value
+        final Primitive frozen = Mockery.freeze(impl);
+        assertEquals(3, frozen.l(0));
+        assertEquals("b", frozen.sNone());
+        assertEquals("b", frozen.sNone());
+        assertEquals(5, frozen.i(0, 0));
+        assertEquals(4, frozen.i(0, 0));
+    }
+
+    @Test
+    void testFreezeClass() {
+        final Foo mock = mock(Foo.class);
+        when(mock.getI()).thenReturn(5);
+        when(mock.intAcc(Matchers.any(), Matchers.eq(1L), anyInt())).thenThrow(new IllegalStateException());
+        final Foo frozen = Mockery.freeze(mock);
+        assertTrue(frozen instanceof Foo);
+        assertEquals(5, frozen.getI());
+        assertNull(frozen.test("woo"));
+        assertThrows(IllegalStateException.class, () -> frozen.intAcc("a", 1L, 1));
+        assertNull(frozen.intAcc("a", 2L, 1));
+        assertEquals(System.identityHashCode(frozen), frozen.hashCode());
+        assertTrue(frozen.toString().contains("@"));
+
+        final Foo spy = Mockery.spy(Foo.class, 1);
+        when(spy.test("a")).thenReturn("b");
+        final Foo frozenSpy = Mockery.freeze(spy);
+        assertEquals("b", frozenSpy.test("a"));
+        assertEquals("c", frozenSpy.test("c"));
+        assertEquals("woo", frozenSpy.intAcc(1));
+    }
+
+    @Test
+    void testStubFrozen() {
+        final Foo mock = mock(Foo.class);
+        final Foo frozen = Mockery.freeze(mock);
+        // rather than stubbing the last call to mock
+        mock.test("a");
+        final NullPointerException e = assertThrows(NullPointerException.class,
+                () -> when(frozen.test("b")).thenReturn("c"));
+        assertTrue(e.getMessage().contains("Frozen"));
+        mock.getI();
+        assertThrows(NullPointerException.class, () -> when(frozen.test(Matchers.any())).thenReturn("c"));
+        assertEquals(0, mock.getI());
+        assertNull(mock.test("a"));
+
+        // the failed stub's matchers aren't left over for the next one
+        when(mock.intAcc(3)).thenReturn("d");
+        assertEquals("d", mock.intAcc(3));
+    }
+
+    @Test
+    void testMockPrimitiveArgsWithoutHistory() {
+        final Primitive impl = mock(Primitive.class, false);
+        assertEquals(0, impl.l(1_000_000L));
+        assertEquals(0, impl.i(1, 2));
+        assertEquals(0.0, impl.d(1.0));
+        assertNull(impl.s('c', true));
+        assertEquals(0.0f, impl.f(1.0f, 5L));
+
+        when(impl.l(1_000_000L)).thenReturn(1L);
+        when(impl.i(anyInt(), Matchers.eq(2))).thenReturn(3);
+        when(impl.d(Double.NaN)).thenReturn(4.0);
+        when(impl.s(Matchers.eq('c'), Matchers.anyBool())).thenReturn("s");
+        when(impl.f(Matchers.matchesFloat(f -> f > 0), Matchers.eq(5L))).thenAnswer(a -> (float) a[0] + (long) a[1]);
+
+        assertEquals(1L, impl.l(1_000_000L));
+        assertEquals(0L, impl.l(1_000_001L));
+        assertEquals(3, impl.i(-1, 2));
+        assertEquals(0, impl.i(2, -1));
+        assertEquals(4.0, impl.d(Double.NaN));
+        assertEquals(0.0, impl.d(1.0));
+        assertEquals("s", impl.s('c', false));
+        assertNull(impl.s('d', false));
+        assertEquals(6.5f, impl.f(1.5f, 5L));
+        assertEquals(0.0f, impl.f(-1.5f, 5L));
+
+        // only the last call is recorded
+        Mockery.verify(impl, 1).f(-1.5f, 5L);
+        Mockery.verify(impl, 1).l(1_000_001L);
+    }
+
+    @Test
+    void testMockPrimitiveArgsWithHistory() {
+        final Primitive impl = mock(Primitive.class);
+        when(impl.i(anyInt(), Matchers.eq(2))).thenReturn(3);
+        assertEquals(3, impl.i(-1, 2));
+        assertEquals(0, impl.i(2, -1));
+        Mockery.verify(impl, 1).i(-1, 2);
+        Mockery.verify(impl, 2).i(anyInt(), anyInt());
+    }
+
+    @Test
+    void testStubOnlyPrimitiveCallDoesntAllocate() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        final long id = Thread.currentThread().getId();
+
+        final Primitive impl = mock(Primitive.class, false);
+        when(impl.l(Matchers.anyLong())).thenReturn(1L);
+        when(impl.i(1_000_000, 1_000_000)).thenReturn(1_000_000);
+        long sum = 0;
+        for (int i = 0; i < 10_000; i++) {
+            sum += impl.l(i + 1_000_000L) + impl.i(1_000_000, 1_000_000) + impl.i(i, i) + (long) impl.d(i);
+        }
+        final long before = threads.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 100_000; i++) {
+            sum += impl.l(i + 1_000_000L) + impl.i(1_000_000, 1_000_000) + impl.i(i, i) + (long) impl.d(i);
+        }
+        final long allocated = threads.getThreadAllocatedBytes(id) - before;
+        assertEquals(110_000 + 110_000L * 1_000_000, sum);
+        // boxing would cost at least an Object[] and a box per call, i.e megabytes here
+        assertTrue(allocated < 100_000, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void testClassCache(@TempDir final Path dir) throws IOException {
+        Mockery.setCacheDirectory(dir);
+        try {
+            Mockery.clearCache();
+            mock(Target.class);
+            mock(Foo.class);
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(2, files.count());
+            }
+
+            // these are now defined from the cached classes
+            Mockery.clearCache();
+            final Target target = mock(Target.class);
+            when(target.doSomething("a")).thenReturn("b");
+            assertEquals("b", target.doSomething("a"));
+            Mockery.verify(target, 1).doSomething("a");
+            final Foo foo = mock(Foo.class);
+            when(foo.getI()).thenReturn(2);
+            assertEquals(2, foo.getI());
+            try (Stream<Path> files = Files.list(dir)) {
+                assertEquals(2, files.count());
+            }
+        } finally {
+            Mockery.setCacheDirectory(null);
+        }
+    }
+
+    @Test
+    void testPregenerate(@TempDir final Path dir) throws Exception {
+        // a class only visible to its own loader, which also sees the pregenerated mocks
+        final ClassWriter wr = new ClassWriter(0);
+        wr.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE,
+                "pregen/Target", null, "java/lang/Object", null);
+        wr.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "foo", "()I", null, null).visitEnd();
+        wr.visitEnd();
+        Files.createDirectories(dir.resolve("pregen"));
+        Files.write(dir.resolve("pregen/Target.class"), wr.toByteArray());
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, getClass().getClassLoader())) {
+            final Class<?> clazz = loader.loadClass("pregen.Target");
+            // nothing's pregenerated for this loader, so we don't look
+            assertFalse(ClassCache.hasPregenerated(clazz));
+            assertNull(ClassCache.getPregenerated(clazz));
+            Mockery.pregenerate(dir, clazz);
+            assertTrue(Files.exists(dir.resolve(ClassCache.INDEX)));
+            assertTrue(ClassCache.hasPregenerated(clazz));
+            assertNotNull(ClassCache.getPregenerated(clazz));
+
+            final Object target = mock(clazz);
+            final Method foo = clazz.getMethod("foo");
+            when(foo.invoke(target)).thenReturn(2);
+            assertEquals(2, foo.invoke(target));
+        }
+        assertThrows(RuntimeException.class, () -> Mockery.pregenerate(dir, String.class));
+    }
+
+    @Test
+    void testMockClassesAreUnloaded(@TempDir final Path dir) throws Exception {
+        final WeakReference<ClassLoader> loader = mockInThrowawayLoader(dir);
+        Mockery.reset();
+        for (int i = 0; i < 10 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loader.get());
+    }
+
+    /**
+     * Mocks a class only visible to its own loader, without keeping any references to it
+     * @param dir directory to write the class to
+     * @return reference to the classloader
+     */
+    private static WeakReference<ClassLoader> mockInThrowawayLoader(final Path dir) throws Exception {
+        final ClassWriter wr = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        wr.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "unload/Target", null, "java/lang/Object", null);
+        MethodVisitor vis = wr.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        vis.visitCode();
+        vis.visitVarInsn(Opcodes.ALOAD, 0);
+        vis.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        vis.visitInsn(Opcodes.RETURN);
+        vis.visitMaxs(0, 0);
+        vis.visitEnd();
+        vis = wr.visitMethod(Opcodes.ACC_PUBLIC, "foo", "()I", null, null);
+        vis.visitCode();
+        vis.visitInsn(Opcodes.ICONST_1);
+        vis.visitInsn(Opcodes.IRETURN);
+        vis.visitMaxs(0, 0);
+        vis.visitEnd();
+        wr.visitEnd();
+        Files.createDirectories(dir.resolve("unload"));
+        Files.write(dir.resolve("unload/Target.class"), wr.toByteArray());
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, MockeryTest.class.getClassLoader())) {
+            final Class<?> clazz = loader.loadClass("unload.Target");
+            final Object target = mock(clazz);
+            // the mock gets its own loader, so it can be unloaded without unloading Target and vice versa
+            assertSame(loader, target.getClass().getClassLoader().getParent());
+            final Method foo = clazz.getMethod("foo");
+            when(foo.invoke(target)).thenReturn(2);
+            assertEquals(2, foo.invoke(target));
+            return new WeakReference<>(loader);
+        }
     }
 
     public interface Target {
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ClassCacheTest {
+    @Test
+    void testRoundTrip(@TempDir final Path dir) throws IOException {
+        final ClassCache cache = new ClassCache(dir.resolve("cache"));
+        assertNull(cache.get(ClassCacheTest.class));
+
+        final byte[] bytes = new byte[]{1, 2, 3};
+        cache.put(ClassCacheTest.class, new ClassCache.Entry(new String[]{"a()V", "b(I)I"}, bytes));
+        final ClassCache.Entry entry = cache.get(ClassCacheTest.class);
+        assertArrayEquals(new String[]{"a()V", "b(I)I"}, entry.getKeys());
+        assertArrayEquals(bytes, entry.getBytes());
+
+        // entries are per class, and readable from other instances (i.e JVMs)
+        assertNull(cache.get(ClassCache.class));
+        assertArrayEquals(bytes, new ClassCache(dir.resolve("cache")).get(ClassCacheTest.class).getBytes());
+        try (Stream<Path> files = Files.list(dir.resolve("cache"))) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testKey(@TempDir final Path dir) {
+        final String key = ClassCache.key(ClassCacheTest.class);
+        assertEquals(key, ClassCache.key(ClassCacheTest.class));
+        assertNotEquals(key, ClassCache.key(ClassCache.class));
+        // a different generator (e.g another version of Mockery) doesn't share entries
+        assertNotEquals(ClassCache.key(ClassCacheTest.class, new byte[]{1}),
+                ClassCache.key(ClassCacheTest.class, new byte[]{2}));
+        assertNotEquals(key, ClassCache.key(ClassCacheTest.class, new byte[]{1}));
+        assertNull(ClassCache.key(ClassCacheTest.class, null));
+
+        final ClassCache cache = new ClassCache(dir);
+        assertNull(cache.get((String) null));
+        cache.put(key, new ClassCache.Entry(new String[]{"a()V"}, new byte[]{1}));
+        assertArrayEquals(new byte[]{1}, cache.get(ClassCacheTest.class).getBytes());
+        assertArrayEquals(new byte[]{1}, cache.get(key).getBytes());
+    }
+
+    @Test
+    void testCorruptEntry(@TempDir final Path dir) throws IOException {
+        final ClassCache cache = new ClassCache(dir);
+        cache.put(ClassCacheTest.class, new ClassCache.Entry(new String[]{"a()V"}, new byte[]{1, 2, 3}));
+        try (Stream<Path> files = Files.list(dir)) {
+            final Path file = files.findFirst().get();
+            Files.write(file, new byte[]{0, 0, 0});
+        }
+        assertNull(cache.get(ClassCacheTest.class));
+    }
+
+    @Test
+    void testRename() {
+        final ClassWriter wr = new ClassWriter(0);
+        wr.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, "foo/Bar1", null, "java/lang/Object", null);
+        wr.visitEnd();
+        final byte[] renamed = ClassCache.rename(wr.toByteArray(), "foo/Bar123");
+        assertEquals("foo/Bar123", new ClassReader(renamed).getClassName());
+        assertEquals("java/lang/Object", new ClassReader(renamed).getSuperName());
+    }
+}
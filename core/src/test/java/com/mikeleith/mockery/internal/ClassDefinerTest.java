@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.MethodHandle;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClassDefinerTest {
+    @Test
+    void testDefine() throws Exception {
+        final Class<?> clazz = ClassDefiner.define(ClassDefinerTest.class,
+                ClassDefinerTest.class.getName() + "Defined", supplier("Defined"));
+        assertEquals(ClassDefinerTest.class.getName() + "Defined", clazz.getName());
+        assertSame(ClassDefinerTest.class.getClassLoader(), clazz.getClassLoader());
+        assertTrue(Supplier.class.isAssignableFrom(clazz));
+
+        // classes can only be defined once
+        assertThrows(LinkageError.class, () -> ClassDefiner.define(ClassDefinerTest.class,
+                ClassDefinerTest.class.getName() + "Defined", supplier("Defined")));
+    }
+
+    @Test
+    void testDefineInChildLoader() throws Exception {
+        assertTrue(ClassDefiner.canDefineInChildLoader(Public.class));
+        // package-private methods can only be overridden from the same loader
+        assertFalse(ClassDefiner.canDefineInChildLoader(ClassDefinerTest.class));
+        assertFalse(ClassDefiner.canDefineInChildLoader(PackagePrivate.class));
+        assertFalse(ClassDefiner.canDefineInChildLoader(Runnable.class));
+
+        final Class<?> clazz = ClassDefiner.define(Public.class,
+                ClassDefinerTest.class.getName() + "Child", supplier("Child"));
+        assertNotSame(ClassDefinerTest.class.getClassLoader(), clazz.getClassLoader());
+        assertSame(ClassDefinerTest.class.getClassLoader(), clazz.getClassLoader().getParent());
+        assertTrue(Supplier.class.isAssignableFrom(clazz));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testDefineHidden() throws Throwable {
+        // hidden classes can be defined repeatedly with the same name
+        for (int i = 0; i < 2; i++) {
+            final MethodHandle constructor = ClassDefiner.defineHidden(ClassDefinerTest.class, supplier("Hidden"));
+            // null if the jdk doesn't support hidden classes
+            if (constructor != null) {
+                final Supplier<Object> supplier = (Supplier<Object>) constructor.invoke();
+                assertEquals("hi", supplier.get());
+                assertEquals(ClassDefinerTest.class.getPackage(), supplier.getClass().getPackage());
+            }
+        }
+    }
+
+    public static class Public {
+        public void foo() {}
+        protected void bar() {}
+        private void baz() {}
+        static void qux() {}
+    }
+
+    static class PackagePrivate {
+        public void foo() {}
+    }
+
+    /**
+     * @param suffix name of the class, relative to this one
+     * @return a class implementing Supplier that returns "hi"
+     */
+    private static byte[] supplier(final String suffix) {
+        final String name = ClassDefinerTest.class.getName().replace('.', '/') + suffix;
+        final ClassWriter wr = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        wr.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object",
+                new String[]{"java/util/function/Supplier"});
+        MethodVisitor vis = wr.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        vis.visitCode();
+        vis.visitVarInsn(Opcodes.ALOAD, 0);
+        vis.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        vis.visitInsn(Opcodes.RETURN);
+        vis.visitMaxs(1, 1);
+        vis.visitEnd();
+        vis = wr.visitMethod(Opcodes.ACC_PUBLIC, "get", "()Ljava/lang/Object;", null, null);
+        vis.visitCode();
+        vis.visitLdcInsn("hi");
+        vis.visitInsn(Opcodes.ARETURN);
+        vis.visitMaxs(1, 1);
+        vis.visitEnd();
+        wr.visitEnd();
+        return wr.toByteArray();
+    }
+}
@@ -18,11 +18,17 @@ package com.mikeleith.mockery.internal;
 
 import org.junit.jupiter.api.Test;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -32,10 +38,12 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class MethodCollectorTest {
+    private static final ClassLoader LOADER = MethodCollectorTest.class.getClassLoader();
+
     @Test
     void testThrowOnMissingInterface() {
         final MethodCollector collector = new MethodCollector(Opcodes.ACC_FINAL,
-                false, Collections.emptySet(), new HashSet<>());
+                false, Collections.emptySet(), new HashSet<>(), LOADER);
         assertThrows(RuntimeException.class, () -> collector.visit(Opcodes.ASM9, 0, "foo",
                 "bar()V", null, new String[]{"fake"}));
     }
@@ -44,10 +52,10 @@ public class MethodCollectorTest {
     void testTraversal() throws IOException {
         final Set<MethodSummary> methods = new HashSet<>();
         final MethodCollector collector = new MethodCollector(Opcodes.ACC_FINAL,
-                false, Collections.emptySet(), methods);
+                false, Collections.emptySet(), methods, LOADER);
         new ClassReader(Root.class.getName()).accept(collector, ClassReader.EXPAND_FRAMES);
         assertNotEquals(Collections.emptySet(), methods);
-        assertEquals(11, methods.size());
+        assertEquals(9, methods.size());
         final MethodSummary rootMethod = new MethodSummary("rootMethod",
                 "()Ljava/lang/String;",
                 null,
@@ -89,13 +97,21 @@ public class MethodCollectorTest {
                 null,
                 null);
         assertTrue(methods.contains(base2Method));
+
+        // mocks shouldn't be finalizable
+        assertFalse(methods.contains(new MethodSummary("finalize", "()V", null, null)));
+        assertFalse(methods.contains(new MethodSummary("clone", "()Ljava/lang/Object;", null, null)));
+        // none of these can be overridden
+        assertFalse(methods.contains(new MethodSummary("<clinit>", "()V", null, null)));
+        assertFalse(methods.contains(new MethodSummary("staticMethod", "()Ljava/lang/String;", null, null)));
+        assertFalse(methods.contains(new MethodSummary("privateMethod", "()Ljava/lang/String;", null, null)));
     }
 
     @Test
     void testThrowsOnFinalClass() {
         final Set<MethodSummary> methods = new HashSet<>();
         final MethodCollector collector = new MethodCollector(Opcodes.ACC_FINAL,
-                false, Collections.emptySet(), methods);
+                false, Collections.emptySet(), methods, LOADER);
         assertThrows(RuntimeException.class, () ->
                 new ClassReader(Invalid.class.getName()).accept(collector, ClassReader.EXPAND_FRAMES));
     }
@@ -104,9 +120,9 @@ public class MethodCollectorTest {
     void testCollectInterface() throws IOException {
         final Set<MethodSummary> methods = new HashSet<>();
         final MethodCollector collector = new MethodCollector(Opcodes.ACC_FINAL,
-                false, Collections.emptySet(), methods);
+                false, Collections.emptySet(), methods, LOADER);
         new ClassReader(Interface3.class.getName()).accept(collector, ClassReader.EXPAND_FRAMES);
-        assertEquals(6, methods.size());
+        assertEquals(4, methods.size());
         final MethodSummary interface3Method = new MethodSummary("interface3Method",
                 "()I",
                 null,
@@ -118,11 +134,68 @@ public class MethodCollectorTest {
     void testCollectObjectDirectly() throws IOException {
         final Set<MethodSummary> methods = new HashSet<>();
         final MethodCollector collector = new MethodCollector(0,
-                false, Collections.emptySet(), methods);
+                false, Collections.emptySet(), methods, LOADER);
         new ClassReader(Object.class.getName()).accept(collector, ClassReader.EXPAND_FRAMES);
         assertNotEquals(Collections.emptySet(), methods);
     }
 
+    @Test
+    void testReadsThroughOwnLoader() throws Exception {
+        // a hierarchy that's only visible to its own loader
+        final Map<String, byte[]> classes = new HashMap<>();
+        classes.put("own/Parent", define("own/Parent", null, Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT));
+        classes.put("own/Child", define("own/Child", "own/Parent", 0));
+        final ClassLoader loader = new ClassLoader(LOADER) {
+            @Override
+            protected Class<?> findClass(final String name) throws ClassNotFoundException {
+                final byte[] bytes = classes.get(name.replace('.', '/'));
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+
+            @Override
+            public InputStream getResourceAsStream(final String name) {
+                final byte[] bytes = classes.get(name.replace(".class", ""));
+                return bytes == null ? super.getResourceAsStream(name) : new ByteArrayInputStream(bytes);
+            }
+        };
+
+        final RootClassVisitor visitor = RootClassVisitor.of(loader.loadClass("own.Child"));
+        assertEquals("own/Child", visitor.getName());
+        assertTrue(visitor.getMethods().contains(new MethodSummary("ownParent", "()V", null, null)));
+        assertTrue(visitor.getMethods().contains(new MethodSummary("ownChild", "()V", null, null)));
+        assertTrue(visitor.getMethods().contains(new MethodSummary("hashCode", "()I", null, null)));
+        assertEquals(1, visitor.getConstructors().size());
+    }
+
+    /**
+     * @param name name of the class
+     * @param parent interface it implements, or null
+     * @param access access flags
+     * @return a class with a single void method, named after the class (i.e own/Foo has ownFoo())
+     */
+    private static byte[] define(final String name, final String parent, final int access) {
+        final ClassWriter wr = new ClassWriter(0);
+        wr.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | access, name, null, "java/lang/Object",
+                parent == null ? null : new String[]{parent});
+        final boolean isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+        if (!isInterface) {
+            final MethodVisitor vis = wr.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            vis.visitCode();
+            vis.visitVarInsn(Opcodes.ALOAD, 0);
+            vis.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            vis.visitInsn(Opcodes.RETURN);
+            vis.visitMaxs(1, 1);
+            vis.visitEnd();
+        }
+        wr.visitMethod(Opcodes.ACC_PUBLIC | (isInterface ? Opcodes.ACC_ABSTRACT : Opcodes.ACC_NATIVE),
+                name.replace("/", ""), "()V", null, null).visitEnd();
+        wr.visitEnd();
+        return wr.toByteArray();
+    }
+
     static final class Invalid {}
 
     static class Root extends Base1 implements Interface1, Interface2 {
@@ -142,10 +215,20 @@ public class MethodCollectorTest {
     }
 
     static class Base2 implements Interface3 {
+        static final Object CONSTANT = new Object();
+
         String base2Method() {
             return null;
         }
 
+        static String staticMethod() {
+            return null;
+        }
+
+        private String privateMethod() {
+            return null;
+        }
+
         public int interface3Method() {
             return 0;
         }
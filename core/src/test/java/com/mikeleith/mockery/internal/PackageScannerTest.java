@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PackageScannerTest {
+    @Test
+    void testScanDirectory() throws IOException {
+        assertTrue(PackageScanner.scan(getClass().getClassLoader(), "com.mikeleith.mockery.internal")
+                .contains(PackageScannerTest.class.getName()));
+    }
+
+    @Test
+    void testScanJar(@TempDir final Path dir) throws IOException {
+        final Path jar = dir.resolve("test.jar");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            // the jar needs directory entries to be found, jar/zip tools include them by default
+            for (final String entry : Arrays.asList("foo/", "foo/bar/", "foobar/", "foo/A.class", "foo/bar/B$C.class",
+                    "foo/package-info.class", "foo/data.txt", "foobar/D.class")) {
+                out.putNextEntry(new JarEntry(entry));
+                out.closeEntry();
+            }
+        }
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, null)) {
+            assertEquals(new TreeSet<>(Arrays.asList("foo.A", "foo.bar.B$C")), PackageScanner.scan(loader, "foo"));
+            assertEquals(Collections.emptySet(), PackageScanner.scan(loader, "missing"));
+        }
+    }
+
+    @Test
+    void testScanNestedDirectory(@TempDir final Path dir) throws IOException {
+        Files.createDirectories(dir.resolve("foo/bar"));
+        for (final String file : Arrays.asList("foo/A.class", "foo/bar/B.class", "foo/data.txt")) {
+            try (OutputStream out = Files.newOutputStream(dir.resolve(file))) {
+                out.write(0);
+            }
+        }
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, null)) {
+            assertEquals(new TreeSet<>(Arrays.asList("foo.A", "foo.bar.B")), PackageScanner.scan(loader, "foo"));
+        }
+    }
+}
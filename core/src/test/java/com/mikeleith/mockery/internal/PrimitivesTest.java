@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class PrimitivesTest {
+    @Test
+    void testPack() {
+        assertEquals(-1, Primitives.pack(Type.getArgumentTypes("()V")));
+        assertEquals(-1, Primitives.pack(Type.getArgumentTypes("(Ljava/lang/String;)V")));
+        assertEquals(-1, Primitives.pack(Type.getArgumentTypes("(JLjava/lang/String;)V")));
+        assertEquals(-1, Primitives.pack(Type.getArgumentTypes("([J)V")));
+        assertEquals(-1, Primitives.pack(Type.getArgumentTypes("(JJJ)V")));
+
+        final int sorts = Primitives.pack(Type.getArgumentTypes("(ZD)V"));
+        assertEquals(2, Primitives.length(sorts));
+        assertEquals(Type.BOOLEAN, Primitives.sort(sorts, 0));
+        assertEquals(Type.DOUBLE, Primitives.sort(sorts, 1));
+        assertEquals(Type.VOID, Primitives.sort(sorts, 2));
+        assertEquals(1, Primitives.length(Primitives.pack(Type.getArgumentTypes("(C)V"))));
+    }
+
+    @Test
+    void testBoxRoundTrips() {
+        final Object[] values = new Object[]{true, false, 'c', (byte) -1, (short) -2, -3, -4.5f, Long.MIN_VALUE,
+                Double.NaN, -0.0};
+        for (final Object value : values) {
+            final int sort = Primitives.sortOf(value);
+            assertEquals(value, Primitives.box(sort, Primitives.bits(value)));
+        }
+        assertEquals(Type.OBJECT, Primitives.sortOf("foo"));
+        assertEquals(Type.OBJECT, Primitives.sortOf(null));
+        assertThrows(RuntimeException.class, () -> Primitives.box(Type.OBJECT, 0));
+
+        final int sorts = Primitives.pack(Type.getArgumentTypes("(IJ)V"));
+        assertArrayEquals(new Object[]{1, 2L}, Primitives.box(sorts, 1, 2));
+        assertArrayEquals(new Object[]{'a'}, Primitives.box(Primitives.pack(Type.getArgumentTypes("(C)V")), 'a', 0));
+    }
+
+    @Test
+    void testCanonical() {
+        final long nan = Double.doubleToRawLongBits(Double.NaN);
+        assertEquals(Primitives.canonical(Type.DOUBLE, nan), Primitives.canonical(Type.DOUBLE, nan | 1));
+        assertNotEquals(Primitives.canonical(Type.DOUBLE, Double.doubleToRawLongBits(0.0)),
+                Primitives.canonical(Type.DOUBLE, Double.doubleToRawLongBits(-0.0)));
+        final long fnan = Float.floatToRawIntBits(Float.NaN);
+        assertEquals(Primitives.canonical(Type.FLOAT, fnan), Primitives.canonical(Type.FLOAT, fnan | 1));
+        assertEquals(1, Primitives.canonical(Type.BOOLEAN, 2));
+        assertEquals(0, Primitives.canonical(Type.BOOLEAN, 0));
+        assertEquals(-1, Primitives.canonical(Type.INT, -1));
+    }
+}
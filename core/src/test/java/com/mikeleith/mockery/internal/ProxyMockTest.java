@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import com.mikeleith.mockery.Defaults;
+import com.mikeleith.mockery.Mockery;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ProxyMockTest {
+    @Test
+    void testCreate() {
+        final Both mock = ProxyMock.create(Both.class, Defaults.Impl.IMPL, true);
+        assertTrue(mock instanceof Mockery.Trackable);
+        assertNull(mock.get());
+        assertEquals(0, mock.count(1));
+        // identity, like generated mocks
+        assertEquals(System.identityHashCode(mock), mock.hashCode());
+        assertEquals(mock, mock);
+    }
+
+    @Test
+    void testSameMethodSharesId() {
+        final Both mock = ProxyMock.create(Both.class, Defaults.Impl.IMPL, true);
+        mock.get();
+        ((First) mock).get();
+        ((Second) mock).get();
+        Mockery.verify(mock, 3).get();
+    }
+
+    public interface First {
+        String get();
+    }
+
+    public interface Second {
+        String get();
+        int count(int i);
+    }
+
+    public interface Both extends First, Second {
+    }
+}
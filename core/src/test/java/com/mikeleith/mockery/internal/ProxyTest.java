@@ -26,14 +26,21 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 public class ProxyTest {
     @Test
     void testMatch() throws InvocationTargetException, IllegalAccessException {
-        final Proxy<Clazz> proxy = Proxy.of(new Clazz());
-        assertEquals("hi", proxy.match("doStuff(I)Ljava/lang/String;", 1));
-        assertEquals("hi bob", proxy.match("doStuff(ILjava/lang/String;)Ljava/lang/String;", 1, "bob"));
-        assertEquals(1, proxy.match("doOtherStuff(I)I", 1));
-
-        assertThrows(RuntimeException.class, () -> proxy.match("doOtherStuff(ILjava/lang/String;)I", 1));
-        assertThrows(RuntimeException.class, () -> proxy.match("doStuff(I)V", 1));
-        assertThrows(RuntimeException.class, () -> proxy.match("missing(ILjava/lang/String;)I", 1));
+        final Proxy<Clazz> proxy = Proxy.of(new Clazz(), new String[]{
+                "doStuff(I)Ljava/lang/String;",
+                "doStuff(ILjava/lang/String;)Ljava/lang/String;",
+                "doOtherStuff(I)I",
+                "doOtherStuff(ILjava/lang/String;)I",
+                "doStuff(I)V",
+                "missing(ILjava/lang/String;)I"
+        });
+        assertEquals("hi", proxy.match(0, 1));
+        assertEquals("hi bob", proxy.match(1, 1, "bob"));
+        assertEquals(1, proxy.match(2, 1));
+
+        assertThrows(RuntimeException.class, () -> proxy.match(3, 1));
+        assertThrows(RuntimeException.class, () -> proxy.match(4, 1));
+        assertThrows(RuntimeException.class, () -> proxy.match(5, 1));
     }
 
     private static final class Clazz {
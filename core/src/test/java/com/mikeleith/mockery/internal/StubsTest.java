@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.internal;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class StubsTest {
+    private long order = 0;
+
+    @Test
+    void testExactReplaces() {
+        final Stubs stubs = new Stubs();
+        final Visitor.Callback a = exact("a");
+        final Visitor.Callback b = exact("b");
+        stubs.add(a);
+        stubs.add(b);
+        assertSame(a, stubs.find(new Object[]{"a"}));
+        assertSame(b, stubs.find(new Object[]{"b"}));
+        assertNull(stubs.find(new Object[]{"c"}));
+        assertNull(stubs.find(new Object[]{null}));
+
+        final Visitor.Callback a2 = exact("a");
+        stubs.add(a2);
+        assertSame(a2, stubs.find(new Object[]{"a"}));
+        assertEquals(2, stubs.callbacks().size());
+        assertSame(a2, stubs.callbacks().get(0));
+    }
+
+    @Test
+    void testResize() {
+        final Stubs stubs = new Stubs();
+        final Visitor.Callback[] callbacks = new Visitor.Callback[100];
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = exact(i, (long) i);
+            stubs.add(callbacks[i]);
+        }
+        final int sorts = Primitives.pack(Type.getArgumentTypes("(IJ)V"));
+        for (int i = 0; i < callbacks.length; i++) {
+            assertSame(callbacks[i], stubs.find(new Object[]{i, (long) i}));
+            assertSame(callbacks[i], stubs.find(sorts, i, i));
+        }
+        assertNull(stubs.find(new Object[]{1, 1}));
+        assertNull(stubs.find(sorts, 1, 2));
+        assertEquals(100, stubs.callbacks().size());
+    }
+
+    @Test
+    void testRawHashesMatchBoxed() {
+        final Object[] values = new Object[]{true, 'c', (byte) -1, (short) -2, -3, -4.5f, Long.MIN_VALUE,
+                Double.NaN, -0.0};
+        for (final Object value : values) {
+            final Stubs stubs = new Stubs();
+            final Visitor.Callback callback = exact(value);
+            stubs.add(callback);
+            final int sort = Primitives.sortOf(value);
+            assertSame(callback, stubs.find(sort, Primitives.bits(value), 0));
+            assertSame(callback, stubs.find(new Object[]{value}));
+        }
+        // NaNs with different bits are still equal
+        final Stubs stubs = new Stubs();
+        final Visitor.Callback callback = exact(Double.NaN);
+        stubs.add(callback);
+        assertSame(callback, stubs.find(Primitives.pack(Type.getArgumentTypes("(D)V")), 0x7ff8000000000001L, 0));
+    }
+
+    @Test
+    void testNewestWins() {
+        final Stubs stubs = new Stubs();
+        final Visitor.Callback a = exact(1);
+        final Visitor.Callback any = callback(o -> true);
+        final Visitor.Callback b = exact(2);
+        stubs.add(a);
+        stubs.add(any);
+        stubs.add(b);
+        assertSame(any, stubs.find(new Object[]{1}));
+        assertSame(b, stubs.find(new Object[]{2}));
+        assertSame(any, stubs.find(new Object[]{3}));
+        final int sorts = Primitives.pack(Type.getArgumentTypes("(I)V"));
+        assertSame(any, stubs.find(sorts, 1, 0));
+        assertSame(b, stubs.find(sorts, 2, 0));
+        assertNull(stubs.find(new Object[]{1, 2}));
+    }
+
+    @Test
+    void testEqualsWithoutHashCode() {
+        final Stubs stubs = new Stubs();
+        final Visitor.Callback callback = exact(new Key(1));
+        stubs.add(callback);
+        assertSame(callback, stubs.find(new Object[]{new Key(1)}));
+        assertNull(stubs.find(new Object[]{new Key(2)}));
+    }
+
+    @Test
+    void testMutatedAfterStubbing() {
+        final List<String> list = new ArrayList<>();
+        final Stubs stubs = new Stubs();
+        final Visitor.Callback callback = exact(list);
+        stubs.add(callback);
+        list.add("a");
+        assertSame(callback, stubs.find(new Object[]{list}));
+        assertSame(callback, stubs.find(new Object[]{Collections.singletonList("a")}));
+        assertNull(stubs.find(new Object[]{Collections.emptyList()}));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Visitor.Callback exact(final Object... values) {
+        final Predicate<Object>[] args = new Predicate[values.length];
+        for (int i = 0; i < values.length; i++) {
+            args[i] = new Exact(values[i]);
+        }
+        return new Visitor.Callback(args, null, order++);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Visitor.Callback callback(final Predicate<Object> arg) {
+        return new Visitor.Callback(new Predicate[]{arg}, null, order++);
+    }
+
+    // equal by value, but doesn't override hashCode
+    private static final class Key {
+        private final int value;
+
+        Key(final int value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && ((Key) o).value == value;
+        }
+    }
+
+    private static final class Exact implements Predicate<Object>, Visitor.ExactPredicate {
+        private final Object value;
+
+        Exact(final Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean test(final Object o) {
+            return value == null ? o == null : value.equals(o);
+        }
+
+        @Override
+        public Object value() {
+            return value;
+        }
+    }
+}
@@ -27,107 +27,111 @@ import java.util.function.Predicate;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class VerifierTest {
+    private static final String[] KEYS = new String[]{"foo", "foo2"};
+    private static final int FOO = 0;
+    private static final int FOO2 = 1;
+
     @Test
     void testMatch() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = visitor.init("foo");
-        visitor.run(list, "foo", Object.class);
-        visitor.run(list, "foo", Object.class);
-        new Verifier(i -> i == 2).verify(visitor, "foo", null, list);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class);
+        visitor.run(FOO, Object.class);
+        new Verifier(i -> i == 2).verify(visitor, FOO, null, list);
     }
 
     @Test
     void testMatchIsRepeatable() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = visitor.init("foo");
-        visitor.run(list, "foo", Object.class);
-        visitor.run(list, "foo", Object.class);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class);
+        visitor.run(FOO, Object.class);
         for (int j = 0; j < 10; j++) {
-            new Verifier(i -> i == 2).verify(visitor, "foo", null, list);
+            new Verifier(i -> i == 2).verify(visitor, FOO, null, list);
         }
     }
 
     @Test
     void testFail() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = new ArrayList<>();
-        visitor.run(list, "foo", Object.class);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class);
         assertThrows(RuntimeException.class, () ->
-                new Verifier(i -> i == 2).verify(visitor, "foo", null, list));
+                new Verifier(i -> i == 2).verify(visitor, FOO, null, list));
     }
 
     @Test
     void testFailDifferentFnName() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = visitor.init("foo2");
-        visitor.run(list, "foo2", Object.class);
-        new Verifier(i -> i == 1).verify(visitor, "foo2", null, list);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO2);
+        visitor.run(FOO2, Object.class);
+        new Verifier(i -> i == 1).verify(visitor, FOO2, null, list);
         assertThrows(RuntimeException.class, () ->
-                new Verifier(i -> i == 1).verify(visitor, "foo", null, new ArrayList<>()));
+                new Verifier(i -> i == 1).verify(visitor, FOO, null, new ArrayList<>()));
     }
 
     @Test
     void testFailDifferentArgs() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = visitor.init("foo");
-        visitor.run(list, "foo", Object.class, 1);
-        new Verifier(i -> i == 1).verify(visitor, "foo", null, list, 1);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class, 1);
+        new Verifier(i -> i == 1).verify(visitor, FOO, null, list, 1);
         assertThrows(RuntimeException.class, () ->
-                new Verifier(i -> i == 1).verify(visitor, "foo", null, new ArrayList<>()));
+                new Verifier(i -> i == 1).verify(visitor, FOO, null, new ArrayList<>()));
     }
 
     @Test
     void testThrowsOnWrongNumArgs() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = new ArrayList<>();
-        visitor.run(list, "foo", Object.class, 1);
-        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 1).verify(visitor, "foo", null, new ArrayList<>()));
-        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 1).verify(visitor, "foo", null, new ArrayList<>(), 1, 2));
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class, 1);
+        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 1).verify(visitor, FOO, null, new ArrayList<>()));
+        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 1).verify(visitor, FOO, null, new ArrayList<>(), 1, 2));
     }
 
     @SuppressWarnings("unchecked")
     @Test
     void testMatchCondition() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = new ArrayList<>();
-        visitor.run(list, "foo", Object.class, 1);
-        visitor.run(list, "foo", Object.class, 1);
-        new Verifier(i -> i == 2).verify(visitor, "foo", new Predicate[]{i -> (int) i == 1}, list, 1);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class, 1);
+        visitor.run(FOO, Object.class, 1);
+        new Verifier(i -> i == 2).verify(visitor, FOO, new Predicate[]{i -> (int) i == 1}, list, 1);
     }
 
     @SuppressWarnings("unchecked")
     @Test
     void testMatchConditionButWrongNumberOfArgs() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = new ArrayList<>();
-        visitor.run(list, "foo", Object.class, 1);
-        visitor.run(list, "foo", Object.class, 1);
-        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 2).verify(visitor, "foo",
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class, 1);
+        visitor.run(FOO, Object.class, 1);
+        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 2).verify(visitor, FOO,
                 new Predicate[]{i -> (int) i == 1, i -> (int) i == 2}, list, 1, 2));
     }
 
     @SuppressWarnings("unchecked")
     @Test
     void testDoesntMatchCondition() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = new ArrayList<>();
-        visitor.run(list, "foo", Object.class, 1);
-        visitor.run(list, "foo", Object.class, 2);
-        visitor.run(list, "foo", Object.class, 1);
-        new Verifier(i -> i == 1).verify(visitor, "foo", new Predicate[]{i -> (int) i == 2}, list, 1);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class, 1);
+        visitor.run(FOO, Object.class, 2);
+        visitor.run(FOO, Object.class, 1);
+        new Verifier(i -> i == 1).verify(visitor, FOO, new Predicate[]{i -> (int) i == 2}, list, 1);
     }
 
     @SuppressWarnings("unchecked")
     @Test
     void testThrowsOnWrongNumPredicateArgs() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        final List<Object[]> list = new ArrayList<>();
-        visitor.run(list, "foo", Object.class, 1);
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> list = visitor.history(FOO);
+        visitor.run(FOO, Object.class, 1);
         // too many
-        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 1).verify(visitor, "foo",
+        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 1).verify(visitor, FOO,
                 new Predicate[]{i -> (int) i == 1, Objects::nonNull}, list, 1));
         // too few
-        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 1).verify(visitor, "foo",
+        assertThrows(RuntimeException.class, () -> new Verifier(i -> i == 1).verify(visitor, FOO,
                 new Predicate[]{i -> (int) i == 1}, list, 1, 2));
     }
 }
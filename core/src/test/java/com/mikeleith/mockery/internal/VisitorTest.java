@@ -20,8 +20,9 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import com.mikeleith.mockery.Defaults;
 import com.mikeleith.mockery.Times;
+import org.objectweb.asm.Type;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
@@ -31,132 +32,270 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class VisitorTest {
+    private static final String[] KEYS = new String[]{
+            "string()Ljava/lang/String;", "arr()[D", "v()V", "i()I", "s()S", "c()C", "b()B", "f()F", "l()J", "d()D",
+            "bool()Z", "withArgs()I", "withArgs(I)I", "withArgs(J)I", "withArgs(IJ)I", "string()Ljava/util/Optional;"
+    };
+
+    private static int id(final String key) {
+        return Arrays.asList(KEYS).indexOf(key);
+    }
+
     @Test
     void testUsesImpl() throws Throwable {
         final Impl impl = new Impl();
-        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl), Defaults.Impl.IMPL, true);
-        assertEquals(impl.string(), visitor.run(new ArrayList<>(), "string()Ljava/lang/String;", String.class));
-        assertArrayEquals(impl.arr(), (double[]) visitor.run(new ArrayList<>(), "arr()[D", double[].class));
-        visitor.run(new ArrayList<>(), "v()V", void.class);
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, true, KEYS);
+        assertEquals(impl.string(), visitor.run(id("string()Ljava/lang/String;"), String.class));
+        assertArrayEquals(impl.arr(), (double[]) visitor.run(id("arr()[D"), double[].class));
+        visitor.run(id("v()V"), void.class);
         assertEquals(1, impl.count);
-        assertEquals(impl.i(), visitor.run(new ArrayList<>(), "i()I", int.class));
-        assertEquals(impl.s(), visitor.run(new ArrayList<>(), "s()S", short.class));
-        assertEquals(impl.c(), visitor.run(new ArrayList<>(), "c()C", char.class));
-        assertEquals(impl.b(), visitor.run(new ArrayList<>(), "b()B", byte.class));
-        assertEquals(impl.f(), visitor.run(new ArrayList<>(), "f()F", float.class));
-        assertEquals(impl.l(), visitor.run(new ArrayList<>(), "l()J", long.class));
-        assertEquals(impl.d(), visitor.run(new ArrayList<>(), "d()D", double.class));
-        assertEquals(impl.bool(), visitor.run(new ArrayList<>(), "bool()Z", boolean.class));
+        assertEquals(impl.i(), visitor.run(id("i()I"), int.class));
+        assertEquals(impl.s(), visitor.run(id("s()S"), short.class));
+        assertEquals(impl.c(), visitor.run(id("c()C"), char.class));
+        assertEquals(impl.b(), visitor.run(id("b()B"), byte.class));
+        assertEquals(impl.f(), visitor.run(id("f()F"), float.class));
+        assertEquals(impl.l(), visitor.run(id("l()J"), long.class));
+        assertEquals(impl.d(), visitor.run(id("d()D"), double.class));
+        assertEquals(impl.bool(), visitor.run(id("bool()Z"), boolean.class));
 
         // test we throw on the wrong return type
-        assertThrows(RuntimeException.class, () ->  visitor.run(new ArrayList<>(), "string()Ljava/util/Optional;", int.class));
+        assertThrows(RuntimeException.class, () ->  visitor.run(id("string()Ljava/util/Optional;"), int.class));
     }
 
     @Test
     void testFallbacks() throws Throwable {
-        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true);
-        assertNull(visitor.run(new ArrayList<>(), "string()Ljava/lang/String;", String.class));
-        assertNull(visitor.run(new ArrayList<>(), "arr()[D", double[].class));
-        visitor.run(new ArrayList<>(), "v()V", void.class);
-        assertEquals(0, visitor.run(new ArrayList<>(), "i()I", int.class));
-        assertEquals((short) 0, visitor.run(new ArrayList<>(), "s()S", short.class));
-        assertEquals((char) 0, visitor.run(new ArrayList<>(), "c()C", char.class));
-        assertEquals((byte) 0, visitor.run(new ArrayList<>(), "b()B", byte.class));
-        assertEquals(0.0f, visitor.run(new ArrayList<>(), "f()F", float.class));
-        assertEquals(0L, visitor.run(new ArrayList<>(), "l()J", long.class));
-        assertEquals(0.0, visitor.run(new ArrayList<>(), "d()D", double.class));
-        assertFalse((boolean) visitor.run(new ArrayList<>(), "bool()Z", boolean.class));
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        assertNull(visitor.run(id("string()Ljava/lang/String;"), String.class));
+        assertNull(visitor.run(id("arr()[D"), double[].class));
+        visitor.run(id("v()V"), void.class);
+        assertEquals(0, visitor.run(id("i()I"), int.class));
+        assertEquals((short) 0, visitor.run(id("s()S"), short.class));
+        assertEquals((char) 0, visitor.run(id("c()C"), char.class));
+        assertEquals((byte) 0, visitor.run(id("b()B"), byte.class));
+        assertEquals(0.0f, visitor.run(id("f()F"), float.class));
+        assertEquals(0L, visitor.run(id("l()J"), long.class));
+        assertEquals(0.0, visitor.run(id("d()D"), double.class));
+        assertFalse((boolean) visitor.run(id("bool()Z"), boolean.class));
     }
 
     @Test
     void testUsesImplWithArgs() throws Throwable {
         final Impl impl = new Impl();
-        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl), Defaults.Impl.IMPL, true);
-        assertEquals(impl.withArgs(), visitor.run(new ArrayList<>(), "withArgs()I", int.class));
-        assertEquals(impl.withArgs(2), visitor.run(new ArrayList<>(), "withArgs(I)I", int.class, 2));
-        assertEquals(impl.withArgs(2L), visitor.run(new ArrayList<>(), "withArgs(J)I", int.class, 2));
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, true, KEYS);
+        assertEquals(impl.withArgs(), visitor.run(id("withArgs()I"), int.class));
+        assertEquals(impl.withArgs(2), visitor.run(id("withArgs(I)I"), int.class, 2));
+        assertEquals(impl.withArgs(2L), visitor.run(id("withArgs(J)I"), int.class, 2));
     }
 
     @SuppressWarnings("unchecked")
     @Test
     void testUsesCallback() throws Throwable {
         final Impl impl = new Impl();
-        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl), Defaults.Impl.IMPL, true);
-        visitor.registerCallback(a -> 10, "withArgs(I)I", i -> (int) i == 1);
-        assertEquals(impl.withArgs(), visitor.run(new ArrayList<>(), "withArgs()I", int.class));
-        assertEquals(10, visitor.run(new ArrayList<>(), "withArgs(I)I", int.class, 1));
-        assertEquals(impl.withArgs(2), visitor.run(new ArrayList<>(), "withArgs(I)I", int.class, 2));
-        assertEquals(impl.withArgs(2L), visitor.run(new ArrayList<>(), "withArgs(J)I", int.class, 2));
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, true, KEYS);
+        visitor.registerCallback(a -> 10, id("withArgs(I)I"), i -> (int) i == 1);
+        assertEquals(impl.withArgs(), visitor.run(id("withArgs()I"), int.class));
+        assertEquals(10, visitor.run(id("withArgs(I)I"), int.class, 1));
+        assertEquals(impl.withArgs(2), visitor.run(id("withArgs(I)I"), int.class, 2));
+        assertEquals(impl.withArgs(2L), visitor.run(id("withArgs(J)I"), int.class, 2));
     }
 
     @SuppressWarnings("unchecked")
     @Test
     void testThrowOnBadCallback() {
         final Impl impl = new Impl();
-        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl), Defaults.Impl.IMPL, true);
-        visitor.registerCallback(a -> "sad", "withArgs(I)I", i -> (int) i == 1);
-        Assertions.assertDoesNotThrow(() -> visitor.run(new ArrayList<>(), "withArgs(I)I", int.class, 1));
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, true, KEYS);
+        visitor.registerCallback(a -> "sad", id("withArgs(I)I"), i -> (int) i == 1);
+        Assertions.assertDoesNotThrow(() -> visitor.run(id("withArgs(I)I"), int.class, 1));
     }
 
     @Test
     void testRunWithVerifier() throws Throwable {
         final Impl impl = new Impl();
-        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl), Defaults.Impl.IMPL, true);
-        final List<Object[]> hist = visitor.init("withArgs()I");
-        assertEquals(impl.withArgs(), visitor.run(hist, "withArgs()I", int.class));
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, true, KEYS);
+        final List<Object[]> hist = visitor.history(id("withArgs()I"));
+        assertEquals(impl.withArgs(), visitor.run(id("withArgs()I"), int.class));
         visitor.setVerification(new Verifier(Times.eq(1)));
-        assertEquals(0, visitor.run(hist, "withArgs()I", int.class));
-        assertEquals(impl.withArgs(), visitor.run(hist, "withArgs()I", int.class));
+        assertEquals(0, visitor.run(id("withArgs()I"), int.class));
+        assertEquals(impl.withArgs(), visitor.run(id("withArgs()I"), int.class));
     }
 
     @Test
     void testRunWithVerifierWithoutHistory() throws Throwable {
         final Impl impl = new Impl();
-        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl), Defaults.Impl.IMPL, false);
-        final List<Object[]> hist = visitor.init("withArgs()I");
-        assertEquals(impl.withArgs(), visitor.run(hist, "withArgs()I", int.class));
-        assertEquals(impl.withArgs(), visitor.run(hist, "withArgs()I", int.class));
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, false, KEYS);
+        final List<Object[]> hist = visitor.history(id("withArgs()I"));
+        assertEquals(impl.withArgs(), visitor.run(id("withArgs()I"), int.class));
+        assertEquals(impl.withArgs(), visitor.run(id("withArgs()I"), int.class));
         // visitor will always return 1
         visitor.setVerification(new Verifier(Times.eq(1)));
-        visitor.run(hist, "withArgs()I", int.class);
+        visitor.run(id("withArgs()I"), int.class);
         visitor.setVerification(new Verifier(Times.eq(2)));
-        assertThrows(RuntimeException.class, () -> visitor.run(hist, "withArgs()I", int.class));
+        assertThrows(RuntimeException.class, () -> visitor.run(id("withArgs()I"), int.class));
         assertEquals(1, hist.size());
         assertEquals(0, hist.get(0).length);
-        assertEquals(impl.withArgs(), visitor.run(hist, "withArgs()I", int.class));
+        assertEquals(impl.withArgs(), visitor.run(id("withArgs()I"), int.class));
     }
 
     @SuppressWarnings("unchecked")
     @Test
     void testRunWithVerifierAndCallback() throws Throwable {
         final Impl impl = new Impl();
-        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl), Defaults.Impl.IMPL, true);
-        visitor.registerCallback(a -> 2, "withArgs()I");
-        final List<Object[]> calls = visitor.init("withArgs()I");
-        assertEquals(2,visitor.run(calls, "withArgs()I", int.class));
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, true, KEYS);
+        visitor.registerCallback(a -> 2, id("withArgs()I"));
+        final List<Object[]> calls = visitor.history(id("withArgs()I"));
+        assertEquals(2,visitor.run(id("withArgs()I"), int.class));
 
         visitor.setVerification(new Verifier(Times.eq(1)));
-        assertEquals(0, visitor.run(calls, "withArgs()I", int.class));
-        assertEquals(2, visitor.run(calls, "withArgs()I", int.class));
+        assertEquals(0, visitor.run(id("withArgs()I"), int.class));
+        assertEquals(2, visitor.run(id("withArgs()I"), int.class));
 
         visitor.setVerification(new Verifier(Times.eq(2)));
-        assertEquals(0, visitor.run(calls, "withArgs()I", int.class));
-        assertEquals(2, visitor.run(calls, "withArgs()I", int.class));
+        assertEquals(0, visitor.run(id("withArgs()I"), int.class));
+        assertEquals(2, visitor.run(id("withArgs()I"), int.class));
     }
 
     @Test
     void testWithoutHistory() throws Throwable {
         final Impl impl = new Impl();
-        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl), Defaults.Impl.IMPL, false);
-        final List<Object[]> hist = visitor.init("withArgs()I");
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, false, KEYS);
+        final List<Object[]> hist = visitor.history(id("withArgs()I"));
         for (int i = 0; i < 10; i++) {
-            visitor.run(hist, "withArgs()I", int.class);
+            visitor.run(id("withArgs()I"), int.class);
         }
         assertEquals(1, hist.size());
     }
 
+    @Test
+    void testPassive() throws Throwable {
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, false, KEYS);
+        final List<Object[]> hist = visitor.history(id("i()I"));
+        assertTrue(visitor.passive(id("i()I")));
+        // passive calls are only this thread's last call, until it calls something else
+        assertEquals(0, hist.size());
+        assertTrue(visitor.passive(id("s()S")));
+        assertEquals(1, hist.size());
+        assertEquals(0, hist.get(0).length);
+        assertEquals(0, visitor.history(id("s()S")).size());
+        // or verifies
+        visitor.setVerification(new Verifier(Times.eq(1)));
+        assertEquals(1, visitor.history(id("s()S")).size());
+        visitor.run(id("s()S"), short.class);
+        // and a passive call can be stubbed without having been recorded
+        assertTrue(visitor.passive(id("c()C")));
+        Visitor.rollbackLast().thenReturn('a');
+        assertEquals(0, visitor.history(id("c()C")).size());
+        assertEquals('a', visitor.run(id("c()C"), char.class));
+
+        visitor.registerCallback(a -> 1, id("i()I"));
+        assertFalse(visitor.passive(id("i()I")));
+        assertEquals(1, visitor.run(id("i()I"), int.class));
+        visitor.reset();
+        assertTrue(visitor.passive(id("i()I")));
+
+        visitor.setVerification(new Verifier(Times.eq(1)));
+        assertFalse(visitor.passive(id("i()I")));
+        visitor.run(id("i()I"), int.class);
+        assertTrue(visitor.passive(id("i()I")));
+
+        final int sorts = Primitives.pack(Type.getArgumentTypes("(IJ)I"));
+        assertTrue(visitor.passive(id("withArgs(IJ)I"), sorts, 1, 2));
+        Visitor.clearLast();
+        assertArrayEquals(new Object[]{1, 2L}, visitor.history(id("withArgs(IJ)I")).get(0));
+        visitor.registerCallback(a -> 1, id("withArgs(IJ)I"));
+        assertFalse(visitor.passive(id("withArgs(IJ)I"), sorts, 1, 2));
+
+        // anything that changes what calls return or record isn't passive
+        assertFalse(new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS).passive(id("i()I")));
+        assertFalse(new Visitor<>(Proxy.of(new Impl(), KEYS), Defaults.Impl.IMPL, false, KEYS).passive(id("i()I")));
+        assertFalse(new Visitor<>(null, Defaults.Deep.DEEP, false, KEYS).passive(id("i()I")));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testRunPrimitiveWithoutHistory() throws Throwable {
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, false, KEYS);
+        final int sorts = Primitives.pack(Type.getArgumentTypes("(IJ)I"));
+        final List<Object[]> hist = visitor.history(id("withArgs(IJ)I"));
+        assertEquals(0, visitor.runJJ(id("withArgs(IJ)I"), int.class, sorts, 1, 2));
+        assertArrayEquals(new Object[]{1, 2L}, hist.get(0));
+
+        visitor.registerCallback(a -> (int) a[0] + (long) a[1], id("withArgs(IJ)I"), i -> (int) i == 1, l -> true);
+        assertEquals(3L, visitor.runJJ(id("withArgs(IJ)I"), int.class, sorts, 1, 2));
+        assertEquals(0, visitor.runJJ(id("withArgs(IJ)I"), int.class, sorts, 2, 2));
+        assertEquals(1, hist.size());
+        assertArrayEquals(new Object[]{2, 2L}, hist.remove(0));
+        assertEquals(0, hist.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> hist.get(0));
+
+        // a verifier switches to the boxed path
+        final List<Object[]> single = visitor.history(id("withArgs(J)I"));
+        final int longSort = Primitives.pack(Type.getArgumentTypes("(J)I"));
+        assertEquals(0, visitor.runJ(id("withArgs(J)I"), int.class, longSort, 5));
+        visitor.setVerification(new Verifier(Times.eq(1)));
+        assertEquals(0, visitor.runJ(id("withArgs(J)I"), int.class, longSort, 5));
+        assertThrows(IllegalStateException.class, () -> single.add(new Object[0]));
+    }
+
+    @Test
+    void testRunPrimitiveUsesImpl() throws Throwable {
+        final Impl impl = new Impl();
+        final Visitor<?> visitor = new Visitor<>(Proxy.of(impl, KEYS), Defaults.Impl.IMPL, false, KEYS);
+        final List<Object[]> hist = visitor.history(id("withArgs(J)I"));
+        assertEquals(impl.withArgs(2L), visitor.runJ(id("withArgs(J)I"), int.class,
+                Primitives.pack(Type.getArgumentTypes("(J)I")), 2));
+    }
+
+    @Test
+    void testHistory() {
+        final Visitor.History history = new Visitor.History();
+        // spans several chunks
+        for (int i = 0; i < 1000; i++) {
+            history.add(new Object[]{i});
+        }
+        assertEquals(1000, history.size());
+        for (int i = 0; i < 1000; i++) {
+            assertArrayEquals(new Object[]{i}, history.get(i));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> history.get(1000));
+        assertThrows(UnsupportedOperationException.class, () -> history.remove(0));
+        assertArrayEquals(new Object[]{0}, history.get(0));
+
+        assertArrayEquals(new Object[]{999}, history.remove(999));
+        assertEquals(999, history.size());
+        history.add(new Object[]{"a"});
+        assertArrayEquals(new Object[]{"a"}, history.get(999));
+
+        history.clear();
+        assertEquals(0, history.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> history.get(0));
+        history.add(Visitor.EMPTY);
+        assertEquals(1, history.size());
+    }
+
+    @Test
+    void testRunDoesntLock() throws Throwable {
+        final Visitor<?> visitor = new Visitor<>(null, Defaults.Impl.IMPL, true, KEYS);
+        visitor.registerCallback(a -> 2, id("i()I"));
+        final Thread thread;
+        synchronized (visitor) {
+            thread = new Thread(() -> {
+                try {
+                    visitor.run(id("i()I"), int.class);
+                } catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            // would time out if run still synchronized on the visitor
+            thread.join(10_000);
+            assertFalse(thread.isAlive());
+        }
+        assertEquals(1, visitor.history(id("i()I")).size());
+    }
+
     public static final class Impl {
         int count = 0;
 
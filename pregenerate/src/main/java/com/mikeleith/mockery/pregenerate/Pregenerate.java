@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.pregenerate;
+
+import com.mikeleith.mockery.Mockery;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates mock classes at build time, so tests don't need to generate them when they run (see Mockery.pregenerate).
+ *
+ * This scans compiled test classes for the types they mock, i.e fields annotated with @Mock and class literals
+ * passed to Mockery.mock, and writes their mocks to a directory that should be on the tests classpath.
+ * Only mocks with the default MethodFilter can be pregenerated, so spies and filtered mocks are skipped.
+ * The classes being scanned (and the classes they mock) must be on the classpath of this tool.
+ *
+ * This saves generating the classes, but mocking a pregenerated type still hashes its hierarchy's class files (to
+ * check it isn't stale) and renames the class with ASM (see ClassCache).
+ *
+ * Usage: Pregenerate output-dir test-classes-dir...
+ */
+public final class Pregenerate {
+    private static final String MOCK = "Lcom/mikeleith/mockery/annotations/Mock;";
+    private static final String FILTER = "Lcom/mikeleith/mockery/MethodFilter;";
+    private static final String MOCKERY = Type.getInternalName(Mockery.class);
+
+    private Pregenerate() {}
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("usage: Pregenerate output-dir test-classes-dir...");
+        }
+        final Path out = Paths.get(args[0]);
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        for (int i = 1; i < args.length; i++) {
+            for (final String name : scan(Paths.get(args[i]))) {
+                try {
+                    Mockery.pregenerate(out, Class.forName(name, false, loader));
+                } catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+                    // e.g final classes, these will fail when mocked at runtime too
+                    System.err.println("skipping mock for " + name + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param dir directory of compiled classes
+     * @return the names of every class mocked by the classes in dir
+     * @throws IOException if we fail to read dir
+     */
+    public static Set<String> scan(final Path dir) throws IOException {
+        final Set<String> mocked = new TreeSet<>();
+        final List<Path> classes;
+        try (Stream<Path> files = Files.walk(dir)) {
+            classes = files.filter(f -> f.toString().endsWith(".class")).collect(Collectors.toList());
+        }
+        for (final Path file : classes) {
+            try (InputStream in = Files.newInputStream(file)) {
+                new ClassReader(in).accept(new Scanner(mocked), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            }
+        }
+        return mocked;
+    }
+
+    /**
+     * Collects mocked types from a class
+     */
+    private static final class Scanner extends ClassVisitor {
+        private final Set<String> mocked;
+
+        Scanner(final Set<String> mocked) {
+            super(Opcodes.ASM9);
+            this.mocked = mocked;
+        }
+
+        private void add(final Type type) {
+            if (type.getSort() == Type.OBJECT) {
+                mocked.add(type.getClassName());
+            }
+        }
+
+        @Override
+        public FieldVisitor visitField(final int access,
+                                       final String name,
+                                       final String descriptor,
+                                       final String signature,
+                                       final Object value) {
+            return new FieldVisitor(Opcodes.ASM9) {
+                @Override
+                public AnnotationVisitor visitAnnotation(final String annotation, final boolean visible) {
+                    if (MOCK.equals(annotation)) {
+                        add(Type.getType(descriptor));
+                    }
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(final int access,
+                                         final String name,
+                                         final String descriptor,
+                                         final String signature,
+                                         final String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM9) {
+                // the last class literal we've seen, e.g Foo.class in Mockery.mock(Foo.class, false), and the number
+                // of values pushed since. Anything else (e.g passing it to another method) forgets it
+                private Type literal = null;
+                private int pushed = 0;
+
+                private void push() {
+                    pushed++;
+                }
+
+                private void reset() {
+                    literal = null;
+                }
+
+                @Override
+                public void visitLdcInsn(final Object value) {
+                    if (value instanceof Type && ((Type) value).getSort() == Type.OBJECT) {
+                        literal = (Type) value;
+                        pushed = 0;
+                    } else {
+                        push();
+                    }
+                }
+
+                @Override
+                public void visitInsn(final int opcode) {
+                    if (opcode >= Opcodes.ACONST_NULL && opcode <= Opcodes.DCONST_1) {
+                        push();
+                    } else {
+                        reset();
+                    }
+                }
+
+                @Override
+                public void visitIntInsn(final int opcode, final int operand) {
+                    if (opcode == Opcodes.NEWARRAY) {
+                        reset();
+                    } else {
+                        push();
+                    }
+                }
+
+                @Override
+                public void visitVarInsn(final int opcode, final int var) {
+                    if (opcode >= Opcodes.ILOAD && opcode <= Opcodes.ALOAD) {
+                        push();
+                    } else {
+                        reset();
+                    }
+                }
+
+                @Override
+                public void visitFieldInsn(final int opcode,
+                                           final String owner,
+                                           final String field,
+                                           final String desc) {
+                    if (opcode == Opcodes.GETSTATIC) {
+                        push();
+                    } else {
+                        reset();
+                    }
+                }
+
+                @Override
+                public void visitTypeInsn(final int opcode, final String type) {
+                    reset();
+                }
+
+                @Override
+                public void visitJumpInsn(final int opcode, final Label label) {
+                    reset();
+                }
+
+                @Override
+                public void visitIincInsn(final int var, final int increment) {
+                    reset();
+                }
+
+                @Override
+                public void visitTableSwitchInsn(final int min,
+                                                 final int max,
+                                                 final Label dflt,
+                                                 final Label... labels) {
+                    reset();
+                }
+
+                @Override
+                public void visitLookupSwitchInsn(final Label dflt, final int[] keys, final Label[] labels) {
+                    reset();
+                }
+
+                @Override
+                public void visitMultiANewArrayInsn(final String desc, final int dims) {
+                    reset();
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(final String method,
+                                                   final String desc,
+                                                   final Handle bootstrap,
+                                                   final Object... args) {
+                    reset();
+                }
+
+                @Override
+                public void visitMethodInsn(final int opcode,
+                                            final String owner,
+                                            final String method,
+                                            final String desc,
+                                            final boolean isInterface) {
+                    // the literal must be the first arg, i.e everything pushed since is one of the call's other args
+                    if (literal != null && opcode == Opcodes.INVOKESTATIC && MOCKERY.equals(owner)
+                            && "mock".equals(method) && desc.startsWith("(Ljava/lang/Class;")
+                            && pushed == Type.getArgumentTypes(desc).length - 1
+                            // filtered mocks never use pregenerated classes
+                            && !desc.contains(FILTER)) {
+                        add(literal);
+                    }
+                    reset();
+                }
+            };
+        }
+    }
+}
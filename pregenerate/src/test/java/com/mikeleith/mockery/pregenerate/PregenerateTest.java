@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2020 Michael Leith
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mikeleith.mockery.pregenerate;
+
+import com.mikeleith.mockery.Defaults;
+import com.mikeleith.mockery.MethodFilter;
+import com.mikeleith.mockery.Mockery;
+import com.mikeleith.mockery.annotations.Mock;
+import com.mikeleith.mockery.internal.ClassCache;
+import com.mikeleith.mockery.annotations.Spy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PregenerateTest {
+    @Test
+    void testScan() throws Exception {
+        final Set<String> mocked = Pregenerate.scan(classes());
+        assertEquals(new TreeSet<>(Arrays.asList(
+                Annotated.class.getName(),
+                Literal.class.getName(),
+                WithDefaults.class.getName(),
+                Final.class.getName()
+        )), mocked);
+    }
+
+    @Test
+    void testMain(@TempDir final Path out) throws Exception {
+        Pregenerate.main(new String[]{out.toString(), classes().toString()});
+        // everything but Final, which can't be mocked, and the index
+        try (Stream<Path> files = Files.list(out.resolve("META-INF/mockery"))) {
+            assertEquals(4, files.count());
+        }
+        assertTrue(Files.exists(out.resolve(ClassCache.RESOURCES + ClassCache.key(Annotated.class))));
+        assertFalse(Files.exists(out.resolve(ClassCache.RESOURCES + ClassCache.key(Spied.class))));
+        assertThrows(IllegalArgumentException.class, () -> Pregenerate.main(new String[]{out.toString()}));
+    }
+
+    private static Path classes() throws Exception {
+        return Paths.get(PregenerateTest.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+    }
+
+    public interface Annotated {
+        int foo();
+    }
+
+    public static class Spied {
+        public int foo() {
+            return 1;
+        }
+    }
+
+    public interface Literal {
+        int foo();
+    }
+
+    public interface Filtered {
+        int foo();
+    }
+
+    public interface WithDefaults {
+        int foo();
+    }
+
+    public interface Unrelated {
+        int foo();
+    }
+
+    public static final class Final {
+    }
+
+    @SuppressWarnings("unused")
+    public static class Fixture {
+        @Mock Annotated annotated;
+        @Spy Spied spied;
+        // not mocked
+        Literal literal;
+        int i;
+
+        void mocks() {
+            Mockery.mock(Literal.class, false);
+            Mockery.mock(Final.class);
+            // these never use pregenerated classes
+            Mockery.spy(Spied.class, 1);
+            Mockery.mock(Filtered.class, MethodFilter.named("foo"));
+            // spies on an instance, and a class literal that isn't mocked
+            Mockery.spy(literal);
+            Arrays.asList(Literal.class, Object.class);
+            Mockery.mock(WithDefaults.class, true, Defaults.Deep.DEEP);
+        }
+
+        // only a literal passed straight to mock counts
+        void notMocked(final Class<?> clazz) {
+            register(Unrelated.class);
+            Mockery.mock(clazz);
+            final Class<?> later = Unrelated.class;
+            Mockery.mock(clazz, false);
+        }
+
+        static void register(final Class<?> clazz) {}
+    }
+}